@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+
+/**
+ * <p>Stands in for the container in the benchmarks: it provides the persistence unit and the Bean Validator, wires beans
+ * together the way CDI would, stubs Servlet API interfaces and builds valid entities.</p>
+ *
+ * <p>The benchmarks live in the same packages as the classes they measure, so that they can call the package scoped
+ * validator and repository methods directly.</p>
+ */
+public final class Fixtures {
+
+    /** The application managed persistence unit on an in memory H2 database, see META-INF/persistence.xml. */
+    public static final String PERSISTENCE_UNIT = "benchmarks_pu";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return A new EntityManagerFactory for a freshly created, empty schema
+     */
+    public static EntityManagerFactory entityManagerFactory() {
+        return Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
+    }
+
+    /**
+     * @return A Bean Validator configured as in the container
+     */
+    public static Validator validator() {
+        return Validation.buildDefaultValidatorFactory().getValidator();
+    }
+
+    /**
+     * <p>Injects the given dependencies into the fields of the bean, as CDI would for its &#064;Inject fields.</p>
+     *
+     * <p>Each dependency is set on every field of the bean, or of its super classes, that it is assignable to. Logger
+     * fields that are left empty get a logger named after the bean's class, as produced by
+     * {@link org.jboss.quickstarts.wfk.util.Resources}, except that it writes on the caller's thread.</p>
+     *
+     * @param bean The bean to wire
+     * @param dependencies The beans and resources to inject
+     * @return The bean
+     */
+    public static <T> T inject(T bean, Object... dependencies) {
+        try {
+            for (Class<?> type = bean.getClass(); type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    field.setAccessible(true);
+                    for (Object dependency : dependencies) {
+                        if (field.getType().isInstance(dependency)) {
+                            field.set(bean, dependency);
+                        }
+                    }
+                    if (field.getType() == StructuredLogger.class && field.get(bean) == null) {
+                        field.set(bean, new StructuredLogger(Logger.getLogger(bean.getClass().getName())));
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot wire " + bean.getClass().getName(), e);
+        }
+        return bean;
+    }
+
+    /**
+     * <p>Creates a stub of an interface, typically from the Servlet API, that answers the named methods with the given
+     * values and every other method with null, false or 0.</p>
+     *
+     * @param type The interface to stub
+     * @param answers The value to return, by method name
+     * @return The stub
+     */
+    public static <T> T stub(Class<T> type, Map<String, ?> answers) {
+        final Map<String, ?> values = new HashMap<String, Object>(answers);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (values.containsKey(method.getName())) {
+                    return values.get(method.getName());
+                }
+                return defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    /**
+     * @see #stub(Class, Map)
+     */
+    public static <T> T stub(Class<T> type) {
+        return stub(type, Collections.<String, Object>emptyMap());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type.isPrimitive() && type != void.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    /**
+     * @param n A number making the Customer unique
+     * @return A valid, not yet persisted Customer
+     */
+    public static Customer customer(int n) {
+        Customer customer = new Customer();
+        customer.setFirstName("Jane");
+        customer.setLastName("Doe");
+        customer.setEmail("jane.doe" + n + "@mailinator.com");
+        customer.setPhoneNumber(String.format("0%010d", n));
+        return customer;
+    }
+
+    /**
+     * @param n A number making the Hotel unique
+     * @return A valid, not yet persisted Hotel
+     */
+    public static Hotel hotel(int n) {
+        Hotel hotel = new Hotel();
+        hotel.setName("Hotel");
+        hotel.setPhoneNumber(String.format("0%010d", n));
+        hotel.setPostcode("AB12CD");
+        return hotel;
+    }
+
+    /**
+     * @param days The number of days from today
+     * @return Midnight of that day, as a Booking date is stored
+     */
+    public static Date daysFromNow(int days) {
+        Calendar day = Calendar.getInstance();
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        day.add(Calendar.DAY_OF_MONTH, days);
+        return day.getTime();
+    }
+}
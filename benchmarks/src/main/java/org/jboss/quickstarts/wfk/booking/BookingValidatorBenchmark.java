@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.validation.ValidationException;
+
+import org.jboss.quickstarts.wfk.Fixtures;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.customer.CustomerRepository;
+import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.jboss.quickstarts.wfk.hotel.HotelRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures {@link BookingValidator#validateBooking(Booking)}, the check made before every booking is written, against
+ * a year of one-night stays for one hotel in H2.</p>
+ *
+ * <p>Each invocation starts from an empty persistence context, as a new request would.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingValidatorBenchmark {
+
+    private static final int HOTELS = 100;
+    private static final int BOOKED_DAYS = 365;
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private BookingValidator validator;
+
+    private Booking freeDay;
+    private Booking doubleBooking;
+
+    @Setup
+    public void setUp() {
+        emf = Fixtures.entityManagerFactory();
+        em = emf.createEntityManager();
+
+        em.getTransaction().begin();
+        List<Hotel> hotels = new ArrayList<Hotel>();
+        for (int i = 0; i < HOTELS; i++) {
+            Hotel hotel = Fixtures.hotel(i);
+            em.persist(hotel);
+            hotels.add(hotel);
+        }
+        Customer customer = Fixtures.customer(0);
+        em.persist(customer);
+        // The first hotel is booked every day for the next year
+        for (int day = 1; day <= BOOKED_DAYS; day++) {
+            em.persist(booking(hotels.get(0), customer, day));
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        BookingOccupancyIndex occupancy = Fixtures.inject(new BookingOccupancyIndex(), em);
+        validator = Fixtures.inject(new BookingValidator(),
+            Fixtures.validator(),
+            Fixtures.inject(new BookingRepository(), em, occupancy),
+            Fixtures.inject(new CustomerRepository(), em),
+            Fixtures.inject(new HotelRepository(), em),
+            occupancy);
+
+        freeDay = booking(hotels.get(HOTELS - 1), customer, BOOKED_DAYS / 2);
+        doubleBooking = booking(hotels.get(0), customer, BOOKED_DAYS / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public Booking validateFreeDay() {
+        em.clear();
+        validator.validateBooking(freeDay);
+        return freeDay;
+    }
+
+    @Benchmark
+    public ValidationException validateDoubleBooking() {
+        em.clear();
+        try {
+            validator.validateBooking(doubleBooking);
+        } catch (ValidationException e) {
+            return e;
+        }
+        throw new IllegalStateException("The double booking was not detected");
+    }
+
+    private static Booking booking(Hotel hotel, Customer customer, int day) {
+        Booking booking = new Booking();
+        booking.setHotel(hotel);
+        booking.setCustomer(customer);
+        booking.setBookingDate(Fixtures.daysFromNow(day));
+        booking.setCheckOutDate(Fixtures.daysFromNow(day + 1));
+        return booking;
+    }
+}
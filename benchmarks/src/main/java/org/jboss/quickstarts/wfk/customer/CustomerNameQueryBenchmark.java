@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.jboss.quickstarts.wfk.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares {@link CustomerRepository#findByLastName(String)}, which runs a named query, with the criteria query it
+ * used to build on every call, both with string attribute names and with the generated {@link Customer_} metamodel.</p>
+ *
+ * <p>The last name matches a single Customer out of many, so that looking it up is cheap and the cost of preparing the
+ * query shows. Run with <code>-prof gc</code> to see the bytes allocated per call alongside the latency.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerNameQueryBenchmark {
+
+    private static final int CUSTOMERS = 1000;
+
+    private static final String LAST_NAME = "Quigley";
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private CustomerRepository repository;
+
+    @Setup
+    public void setUp() {
+        emf = Fixtures.entityManagerFactory();
+        em = emf.createEntityManager();
+
+        em.getTransaction().begin();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = Fixtures.customer(i);
+            if (i == CUSTOMERS / 2) {
+                customer.setLastName(LAST_NAME);
+            }
+            em.persist(customer);
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        repository = Fixtures.inject(new CustomerRepository(), em);
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    /** The named query, parsed once when the persistence unit starts. */
+    @Benchmark
+    public Customer namedQuery() {
+        em.clear();
+        return repository.findByLastName(LAST_NAME);
+    }
+
+    /** The criteria query the repository used to build, naming the attribute with a string. */
+    @Benchmark
+    public Customer criteriaQuery() {
+        em.clear();
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Customer> criteria = cb.createQuery(Customer.class);
+        Root<Customer> customer = criteria.from(Customer.class);
+        criteria.select(customer).where(cb.equal(customer.get("lastName"), LAST_NAME));
+        return em.createQuery(criteria).getSingleResult();
+    }
+
+    /** The same criteria query with the metamodel, which is type safe but just as much work to build. */
+    @Benchmark
+    public Customer metamodelCriteriaQuery() {
+        em.clear();
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Customer> criteria = cb.createQuery(Customer.class);
+        Root<Customer> customer = criteria.from(Customer.class);
+        criteria.select(customer).where(cb.equal(customer.get(Customer_.lastName), LAST_NAME));
+        return em.createQuery(criteria).getSingleResult();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.jboss.quickstarts.wfk.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures {@link CustomerValidator#emailAlreadyExists(String, Long)}, the uniqueness check made before every
+ * Customer is created or updated, against a table of Customers in H2.</p>
+ *
+ * <p>Each invocation starts from an empty persistence context, as a new request would. The {@link CustomerEmailIndex}
+ * is loaded by the first invocation and then kept, as it is in the container.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerValidatorBenchmark {
+
+    private static final int CUSTOMERS = 10000;
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private CustomerValidator validator;
+
+    private Customer existing;
+
+    @Setup
+    public void setUp() {
+        emf = Fixtures.entityManagerFactory();
+        em = emf.createEntityManager();
+
+        em.getTransaction().begin();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = Fixtures.customer(i);
+            em.persist(customer);
+            if (i == CUSTOMERS / 2) {
+                existing = customer;
+            }
+            if (i % 500 == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        validator = Fixtures.inject(new CustomerValidator(), Fixtures.validator(),
+            Fixtures.inject(new CustomerEmailIndex(), em));
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    /** A new Customer registering with an unused email address, the common case. */
+    @Benchmark
+    public boolean newEmail() {
+        em.clear();
+        return validator.emailAlreadyExists("someone.new@mailinator.com", null);
+    }
+
+    /** A new Customer registering with an email address that is taken. */
+    @Benchmark
+    public boolean takenEmail() {
+        em.clear();
+        return validator.emailAlreadyExists(existing.getEmail(), null);
+    }
+
+    /** An existing Customer being updated without changing their email address. */
+    @Benchmark
+    public boolean ownEmail() {
+        em.clear();
+        return validator.emailAlreadyExists(existing.getEmail(), existing.getId());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jboss.quickstarts.wfk.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures {@link JSONPRequestFilter#doFilter(ServletRequest, ServletResponse, FilterChain)} wrapping a JSON
+ * response in a JSONP callback, including recording the request in {@link RequestMetrics}.</p>
+ *
+ * <p>The request and response are stubs; the filter chain writes the JSON body in 8KB blocks, as RESTEasy does, and
+ * the response body is counted and thrown away.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONPRequestFilterBenchmark {
+
+    private static final int BLOCK_SIZE = 8192;
+
+    /** The size of the JSON body in bytes, a single entity and a large list. */
+    @Param({ "1024", "1048576" })
+    public int size;
+
+    private JSONPRequestFilter filter;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private FilterChain chain;
+    private CountingOutputStream body;
+
+    @Setup
+    public void setUp() {
+        filter = Fixtures.inject(new JSONPRequestFilter(), new RequestMetrics());
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("getParameter", "callback");
+        request = Fixtures.stub(HttpServletRequest.class, parameters);
+
+        body = new CountingOutputStream();
+        Map<String, Object> output = new HashMap<String, Object>();
+        output.put("getOutputStream", body);
+        output.put("getCharacterEncoding", "UTF-8");
+        response = Fixtures.stub(HttpServletResponse.class, output);
+
+        final byte[] json = new byte[size];
+        Arrays.fill(json, (byte) 'x');
+        chain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                OutputStream out = response.getOutputStream();
+                for (int off = 0; off < json.length; off += BLOCK_SIZE) {
+                    out.write(json, off, Math.min(BLOCK_SIZE, json.length - off));
+                }
+                out.flush();
+            }
+        };
+    }
+
+    @Benchmark
+    public long doFilter() throws IOException, ServletException {
+        body.count = 0;
+        filter.doFilter(request, response, chain);
+        return body.count;
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
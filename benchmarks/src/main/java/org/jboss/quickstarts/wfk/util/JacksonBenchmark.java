@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.quickstarts.wfk.Fixtures;
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the serialisation and deserialisation of lists of Bookings, each with its Hotel and Customer, through the
+ * ObjectMapper configured by {@link JacksonConfig}, as RESTEasy does for the booking endpoints.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonBenchmark {
+
+    /** The number of Bookings in the list, one for a single GET, the default page size for a list. */
+    @Param({ "1", "100" })
+    public int bookings;
+
+    private ObjectMapper mapper;
+    private List<Booking> graph;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws Exception {
+        mapper = new JacksonConfig().getContext(ObjectMapper.class);
+
+        graph = new ArrayList<Booking>(bookings);
+        for (int i = 0; i < bookings; i++) {
+            Hotel hotel = Fixtures.hotel(i);
+            hotel.setId(Long.valueOf(i + 1));
+            Customer customer = Fixtures.customer(i);
+            customer.setId(Long.valueOf(i + 1));
+
+            Booking booking = new Booking();
+            booking.setId(Long.valueOf(i + 1));
+            booking.setHotel(hotel);
+            booking.setCustomer(customer);
+            booking.setBookingDate(Fixtures.daysFromNow(i + 1));
+            booking.setCheckOutDate(Fixtures.daysFromNow(i + 2));
+            graph.add(booking);
+        }
+        json = mapper.writeValueAsBytes(graph);
+    }
+
+    @Benchmark
+    public byte[] serialise() throws IOException {
+        return mapper.writeValueAsBytes(graph);
+    }
+
+    @Benchmark
+    public Booking[] deserialise() throws IOException {
+        return mapper.readValue(json, Booking[].class);
+    }
+}
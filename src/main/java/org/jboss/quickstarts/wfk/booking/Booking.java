@@ -1,16 +1,19 @@
 package org.jboss.quickstarts.wfk.booking;
 
 import java.io.Serializable;
+import java.util.Calendar;
 import java.util.Date;
 
 import javax.inject.Inject;
 import javax.persistence.*;
+import javax.validation.constraints.AssertTrue;
 import javax.validation.constraints.Future;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.hibernate.validator.constraints.NotEmpty;
 import org.jboss.quickstarts.wfk.customer.Customer;
@@ -19,32 +22,72 @@ import org.jboss.quickstarts.wfk.hotel.Hotel;
 /*
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
+ *
+ * The list queries (FIND_PAGE, FIND_BY_HOTEL and FIND_BY_CUSTOMER) return BookingSummary objects rather than
+ * Bookings, and FIND_BY_ID fetches the hotel and customer with the booking, since both are loaded lazily.
+ *
+ * A booking is a stay from bookingDate up to checkOutDate, so FIND_BY_HOTEL and FIND_BY_CUSTOMER return the stays that
+ * overlap the range: they start on or before its last day and end after its first.
  */
 @Entity
 @NamedQueries({
-    @NamedQuery(name = Booking.FIND_ALL, query = "SELECT b FROM Booking b ORDER BY b.id ASC"),
+    @NamedQuery(name = Booking.FIND_PAGE, query = BookingSummary.SELECT + "WHERE b.id > :afterId ORDER BY b.id ASC"),
+    @NamedQuery(name = Booking.FIND_PAGE_FIELDS, query = "SELECT b.id, b.bookingDate, b.checkOutDate, b.hotel.id, b.customer.id FROM Booking b WHERE b.id > :afterId ORDER BY b.id ASC"),
     @NamedQuery(name = Booking.FIND_BY_DATE, query = "SELECT b FROM Booking b WHERE b.bookingDate = :bookingDate"),
-    @NamedQuery(name = Booking.FIND_BY_HOTEL, query = "SELECT b FROM Booking b WHERE b.hotel.id = :hotelId"),
-    @NamedQuery(name = Booking.FIND_BY_CUSTOMER, query = "SELECT b FROM Booking b WHERE b.customer.id = :customerId")
+    @NamedQuery(name = Booking.FIND_BY_HOTEL, query = BookingSummary.SELECT + "WHERE h.id = :hotelId AND b.bookingDate <= :to AND b.checkOutDate > :from AND b.id > :afterId ORDER BY b.id ASC"),
+    @NamedQuery(name = Booking.FIND_BY_CUSTOMER, query = BookingSummary.SELECT + "WHERE c.id = :customerId AND b.bookingDate <= :to AND b.checkOutDate > :from AND b.id > :afterId ORDER BY b.id ASC"),
+    @NamedQuery(name = Booking.FIND_BY_ID, query = "SELECT b FROM Booking b JOIN FETCH b.hotel JOIN FETCH b.customer WHERE b.id = :id"),
+    @NamedQuery(name = Booking.FIND_STAYS_BY_HOTEL, query = "SELECT b.id, b.bookingDate, b.checkOutDate FROM Booking b WHERE b.hotel.id = :hotelId AND b.checkOutDate >= :today"),
+    @NamedQuery(name = Booking.FIND_IDS_CHECKING_IN, query = "SELECT b.id FROM Booking b WHERE b.hotel.id = :hotelId AND b.bookingDate >= :checkIn AND b.bookingDate < :checkOut"),
+    @NamedQuery(name = Booking.FIND_LAST_STAY_BEFORE, query = "SELECT b.id, b.checkOutDate FROM Booking b WHERE b.hotel.id = :hotelId AND b.bookingDate < :checkIn ORDER BY b.bookingDate DESC"),
+    @NamedQuery(name = Booking.UPDATE, query = "UPDATE Booking b SET " + Booking.SET + "WHERE b.id = :id"),
+    @NamedQuery(name = Booking.UPDATE_VERSION, query = "UPDATE Booking b SET " + Booking.SET + "WHERE b.id = :id AND b.version = :version")
 })
 @XmlRootElement
-@Table(name = "Booking", uniqueConstraints = @UniqueConstraint(columnNames = "id"))
+/*
+ * The stays of a hotel cannot overlap. That is checked first by BookingValidator against the BookingOccupancyIndex, and
+ * then against the database by BookingRepository, while it holds a lock on the hotel, so concurrent bookings cannot
+ * both be written. Two stays starting on the same day always overlap, so the (hotelId, booking_date) unique constraint
+ * still holds, and the unique index backing it serves the per-hotel lookups.
+ *
+ * As stored stays do not overlap, a new one can only overlap those checking in during it (FIND_IDS_CHECKING_IN, a range
+ * seek bounded on both sides by its nights) and the last one checking in before it (FIND_LAST_STAY_BEFORE, read with
+ * a limit of one row, a backward seek from its check-in day). Neither reads the older stays of the hotel.
+ *
+ * The same index serves FIND_BY_HOTEL, and FIND_BY_CUSTOMER is served by the index the database creates for the
+ * customerId foreign key.
+ */
+@Table(name = "Booking", uniqueConstraints = {
+    @UniqueConstraint(columnNames = "id"),
+    @UniqueConstraint(name = "UK_BOOKING_HOTEL_DATE", columnNames = {"hotelId", "booking_date"})
+})
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class Booking implements Serializable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
     
-    public static final String FIND_ALL = "Booking.findAll";
+    public static final String FIND_PAGE = "Booking.findPage";
+    public static final String FIND_PAGE_FIELDS = "Booking.findPageFields";
     public static final String FIND_BY_DATE = "Booking.findByDate";
     public static final String FIND_BY_HOTEL = "Booking.findByHotel";
     public static final String FIND_BY_CUSTOMER = "Booking.findByCustomer";
+    public static final String FIND_STAYS_BY_HOTEL = "Booking.findStaysByHotel";
+    public static final String FIND_IDS_CHECKING_IN = "Booking.findIdsCheckingIn";
+    public static final String FIND_LAST_STAY_BEFORE = "Booking.findLastStayBefore";
+    public static final String FIND_BY_ID = "Booking.findById";
+    public static final String UPDATE = "Booking.update";
+    public static final String UPDATE_VERSION = "Booking.updateVersion";
+
+    // The assignments of UPDATE and UPDATE_VERSION, which bump the version themselves as a bulk update bypasses @Version
+    static final String SET = "b.hotel = :hotel, b.customer = :customer, b.bookingDate = :bookingDate, "
+        + "b.checkOutDate = :checkOutDate, b.version = b.version + 1 ";
     
     @NotNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "hotelId")
     private Hotel hotel;
     @NotNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "customerId")
     private Customer customer;
     
@@ -60,7 +103,13 @@ public class Booking implements Serializable {
 
     
     @Id
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    /*
+     * Ids come from a sequence of this entity's own, so inserts into different tables do not contend for one row. With
+     * the pooled optimizer each round trip to the sequence reserves a block of allocationSize ids, and the sequence
+     * starts above the ids seeded by import.sql.
+     */
+    @SequenceGenerator(name = "Booking_SEQ", sequenceName = "Booking_SEQ", initialValue = 20000, allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "Booking_SEQ")
     private Long id;
     
     @NotNull
@@ -68,6 +117,23 @@ public class Booking implements Serializable {
     @Column(name = "booking_date")
     @Temporal(TemporalType.DATE)
     private Date bookingDate;
+    
+    /*
+     * The day the guest leaves: the stay covers the nights from bookingDate up to, but not including, this day. A
+     * booking made without one is for a single night, see defaultCheckOutDate().
+     */
+    @Column(name = "check_out_date", nullable = false)
+    @Temporal(TemporalType.DATE)
+    private Date checkOutDate;
+
+    /*
+     * Incremented by every update, it is the ETag of the Booking. It is not part of the JSON: a conditional update is
+     * given the version it expects in an If-Match header, see BookingRepository.update().
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+    
     public Long getId() {
         return id;
     }
@@ -99,5 +165,53 @@ public class Booking implements Serializable {
         this.bookingDate = bookingDate;
     }
 
+    public Date getCheckOutDate() {
+        return checkOutDate;
+    }
+
+    public void setCheckOutDate(Date checkOutDate) {
+        this.checkOutDate = checkOutDate;
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    /*
+     * Private, so that it is seen by Bean Validation but not serialised to JSON.
+     */
+    @AssertTrue(message = "The check-out date must be after the booking date")
+    private boolean isCheckOutDateValid() {
+        return bookingDate == null || checkOutDate == null || checkOutDate.after(bookingDate);
+    }
+
+    /**
+     * <p>Makes a booking that was given no check-out date a stay of one night.</p>
+     */
+    void defaultCheckOutDate() {
+        if (checkOutDate == null && bookingDate != null) {
+            Calendar day = Calendar.getInstance();
+            day.setTime(bookingDate);
+            day.add(Calendar.DATE, 1);
+            checkOutDate = day.getTime();
+        }
+    }
+
+    /*
+     * Only the ids of the hotel and customer, which are loaded lazily. Used in log messages, so it is only called when
+     * they are written.
+     */
+    @Override
+    public String toString() {
+        return "Booking[id=" + id + ", hotelId=" + (hotel == null ? null : hotel.getId()) + ", customerId="
+            + (customer == null ? null : customer.getId()) + ", bookingDate=" + bookingDate + ", checkOutDate="
+            + checkOutDate + "]";
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package org.jboss.quickstarts.wfk.booking;
+
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+
+/**
+ * <p>An in-memory index of the stays already booked at each hotel. It lets {@link BookingValidator} detect an
+ * overlapping booking with a lookup in a sorted map instead of loading and scanning every {@link Booking} of the
+ * hotel. It is only a fast pre-check, and it can be wrong both ways. It does not see the bookings made on other nodes
+ * or directly in the database, so {@link BookingRepository} checks the stays again in the database before writing
+ * them. And it keeps the stays that other nodes have since moved or deleted, so a stay it reports as booked is
+ * confirmed in the database by {@link BookingValidator} before the booking is refused. Most new stays are free, and
+ * those are answered without a query.</p>
+ *
+ * <p>Each stay is one entry, keyed by its check-in day, whatever the number of nights. The stays of a hotel never
+ * overlap, so they are also sorted by check-out day, and a new stay can only overlap the last few that check in before
+ * it checks out.</p>
+ *
+ * <p>The occupancy of a hotel is loaded the first time it is asked for, using a projection query that only returns the
+ * booking id and dates of the stays that have not ended (no Booking, Hotel or Customer entities are materialised).
+ * Bookings are made for future days, so a stay that has ended can no longer overlap one; those are dropped as new stays
+ * are booked, and the index holds the coming stays of each hotel rather than its whole history. From then on it is kept
+ * up to date by {@link BookingRepository} as bookings are created, updated and deleted. Those changes are made before
+ * the transaction commits, and are undone if it does not.</p>
+ *
+ * @see BookingValidator#bookingExist(Long, Long, Date, Date)
+ */
+@ApplicationScoped
+public class BookingOccupancyIndex {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    @Inject
+    private EntityManager em;
+
+    @Inject
+    private TransactionSynchronizationRegistry transactions;
+
+    // hotel id -> (check-in day -> stay)
+    private final ConcurrentMap<Long, ConcurrentNavigableMap<Integer, Stay>> hotels =
+        new ConcurrentHashMap<Long, ConcurrentNavigableMap<Integer, Stay>>();
+
+    // booking id -> the stay it holds, so that an update or delete can release it
+    private final ConcurrentMap<Long, Stay> stays = new ConcurrentHashMap<Long, Stay>();
+
+    /**
+     * <p>Checks whether any night from the check-in day up to the check-out day is already booked at the hotel by a
+     * booking other than the one with the given id.</p>
+     *
+     * @param hotelId The id of the Hotel to check
+     * @param checkIn The first night of the stay
+     * @param checkOut The day the stay ends, which is not itself booked
+     * @param bookingId The id of the Booking being validated, or null if it is a new Booking
+     * @return true if another Booking already holds that hotel on one of those nights
+     */
+    boolean isBooked(Long hotelId, Date checkIn, Date checkOut, Long bookingId) {
+        if (hotelId == null || checkIn == null || checkOut == null) {
+            return false;
+        }
+        int in = dayOf(checkIn);
+        // Walk back from the last stay checking in before this one checks out, until one has left by the check-in day
+        for (Stay stay : occupancyOf(hotelId).headMap(dayOf(checkOut), false).descendingMap().values()) {
+            if (stay.checkOut <= in) {
+                return false;
+            }
+            if (!stay.bookingId.equals(bookingId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Records that the given (persisted) Booking holds its hotel for its stay.</p>
+     *
+     * <p>Hotels whose occupancy has not been loaded yet are left alone; they will pick the Booking up from the database
+     * when they are first checked.</p>
+     *
+     * @param booking The Booking that has been written to the database
+     */
+    void book(Booking booking) {
+        if (booking.getId() == null || booking.getHotel() == null || booking.getBookingDate() == null
+            || booking.getCheckOutDate() == null) {
+            return;
+        }
+        Long hotelId = booking.getHotel().getId();
+        ConcurrentNavigableMap<Integer, Stay> occupancy = hotels.get(hotelId);
+        if (occupancy != null) {
+            final Stay stay = new Stay(hotelId, booking.getId(), dayOf(booking.getBookingDate()),
+                dayOf(booking.getCheckOutDate()));
+            add(stay);
+            TransactionUndo.onRollback(transactions, new Runnable() {
+                @Override
+                public void run() {
+                    remove(stay);
+                }
+            });
+            prune(occupancy);
+        }
+    }
+
+    /**
+     * <p>Releases the stay held by the Booking with the given id, if it is known to the index.</p>
+     *
+     * @param bookingId The id of the Booking that has been changed or removed
+     */
+    void release(Long bookingId) {
+        if (bookingId == null) {
+            return;
+        }
+        final Stay stay = stays.get(bookingId);
+        if (stay != null && remove(stay)) {
+            TransactionUndo.onRollback(transactions, new Runnable() {
+                @Override
+                public void run() {
+                    add(stay);
+                }
+            });
+        }
+    }
+
+    private void add(Stay stay) {
+        ConcurrentNavigableMap<Integer, Stay> occupancy = hotels.get(stay.hotelId);
+        if (occupancy != null) {
+            occupancy.put(stay.checkIn, stay);
+            stays.put(stay.bookingId, stay);
+        }
+    }
+
+    // Only removes this very stay, so that undoing one change never drops a stay that has replaced it since
+    private boolean remove(Stay stay) {
+        boolean removed = stays.remove(stay.bookingId, stay);
+        ConcurrentNavigableMap<Integer, Stay> occupancy = hotels.get(stay.hotelId);
+        if (occupancy != null) {
+            occupancy.remove(stay.checkIn, stay);
+        }
+        return removed;
+    }
+
+    // Drops the stays that ended before today, which come first as the stays of a hotel do not overlap
+    private void prune(ConcurrentNavigableMap<Integer, Stay> occupancy) {
+        int today = dayOf(new Date());
+        for (Stay stay : occupancy.values()) {
+            if (stay.checkOut >= today) {
+                break;
+            }
+            remove(stay);
+        }
+    }
+
+    private ConcurrentNavigableMap<Integer, Stay> occupancyOf(Long hotelId) {
+        ConcurrentNavigableMap<Integer, Stay> occupancy = hotels.get(hotelId);
+        if (occupancy == null) {
+            ConcurrentNavigableMap<Integer, Stay> loaded = load(hotelId);
+            occupancy = hotels.putIfAbsent(hotelId, loaded);
+            if (occupancy == null) {
+                occupancy = loaded;
+                for (Stay stay : loaded.values()) {
+                    stays.put(stay.bookingId, stay);
+                }
+            }
+        }
+        return occupancy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentNavigableMap<Integer, Stay> load(Long hotelId) {
+        List<Object[]> rows = em.createNamedQuery(Booking.FIND_STAYS_BY_HOTEL)
+            .setParameter("hotelId", hotelId)
+            .setParameter("today", new Date(), TemporalType.DATE)
+            .getResultList();
+
+        ConcurrentNavigableMap<Integer, Stay> occupancy = new ConcurrentSkipListMap<Integer, Stay>();
+        for (Object[] row : rows) {
+            Stay stay = new Stay(hotelId, (Long) row[0], dayOf((Date) row[1]), dayOf((Date) row[2]));
+            occupancy.put(stay.checkIn, stay);
+        }
+        return occupancy;
+    }
+
+    /*
+     * Booking dates are stored as @Temporal(DATE), so they come back from the database as midnight in the default time
+     * zone. Counting days in that same zone gives one key per calendar day whatever the Date instance looks like.
+     */
+    static int dayOf(Date date) {
+        long millis = date.getTime();
+        return (int) ((millis + TimeZone.getDefault().getOffset(millis)) / MILLIS_PER_DAY);
+    }
+
+    private static final class Stay {
+        private final Long hotelId;
+        private final Long bookingId;
+        private final int checkIn;
+        private final int checkOut;
+
+        private Stay(Long hotelId, Long bookingId, int checkIn, int checkOut) {
+            this.hotelId = hotelId;
+            this.bookingId = bookingId;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+        }
+    }
+}
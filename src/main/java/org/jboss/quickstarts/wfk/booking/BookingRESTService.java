@@ -1,16 +1,25 @@
 package org.jboss.quickstarts.wfk.booking;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Logger;
+import java.util.concurrent.Callable;
 
+import javax.annotation.Resource;
 import javax.ejb.NoSuchEntityException;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.interceptor.ExcludeClassInterceptors;
+import javax.interceptor.Interceptors;
+import javax.persistence.EntityNotFoundException;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -22,9 +31,26 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Providers;
+
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 
 /*
  * The Path annotation defines this as a REST Web Service using JAX-RS.
@@ -40,64 +66,217 @@ import javax.ws.rs.WebApplicationException;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 @Stateless
+@Interceptors(RequestMetricsInterceptor.class)
 public class BookingRESTService {
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
     
     @Inject
     private BookingService service;
     
+    @Inject
+    private AsyncDispatcher dispatcher;
+    
+    @Resource
+    private SessionContext context;
+    
+    /** The largest number of bookings that can be created by a single batch request. */
+    static final int MAX_BATCH_SIZE = 500;
+    
+    // The fields that can be asked for with ?fields=, in the column order of Booking.FIND_PAGE_FIELDS
+    private static final List<String> PROJECTABLE_FIELDS =
+        Arrays.asList("id", "bookingDate", "checkOutDate", "hotelId", "customerId");
+    
     /**
-     * <p>Search for and return all the Bookings.  They are sorted alphabetically by name.</p>
+     * <p>Search for and return the Bookings.  They are sorted by id, and each is returned as a {@link BookingSummary}
+     * holding the name of its Hotel and Customer.</p>
      * 
-     * @return A Response containing a list of Bookings
+     * <p>The Bookings are returned a page at a time (see {@link Paging}): without query parameters this is the first
+     * page of {@link Paging#DEFAULT_LIMIT} Bookings, and <i>afterId</i> and <i>limit</i> ask for another one. A
+     * <i>Link</i> header points to the next page when this one is full, and {@link #exportBookings(Providers)} returns
+     * the whole table at once. Passing <i>fields</i>, a comma separated subset of id, bookingDate, checkOutDate, hotelId and customerId,
+     * returns only those fields and does not load the hotels and customers at all.</p>
+     * 
+     * @param afterId The id of the last Booking of the previous page
+     * @param limit The maximum number of Bookings to return
+     * @param fields The comma separated fields to return for each Booking
+     * @param uriInfo The URI of the request, used to build the link to the next page
+     * @return A Response containing a list of BookingSummary objects
+     */
+    @GET
+    public Response retrieveAllBookings(@QueryParam("afterId") Long afterId, @QueryParam("limit") Integer limit,
+                                        @QueryParam("fields") String fields, @Context UriInfo uriInfo) {
+        int pageSize = Paging.limit(limit);
+        Response.ResponseBuilder builder;
+        Long lastId = null;
+        int size;
+        
+        if (fields == null) {
+            List<BookingSummary> bookings = service.findPage(Paging.afterId(afterId), pageSize);
+            if (!bookings.isEmpty()) {
+                lastId = bookings.get(bookings.size() - 1).getId();
+            }
+            size = bookings.size();
+            builder = Response.ok(bookings);
+        } else {
+            List<Integer> columns = projectedColumns(fields);
+            List<Object[]> rows = service.findPageFields(Paging.afterId(afterId), pageSize);
+            List<Map<String, Object>> bookings = new ArrayList<Map<String, Object>>(rows.size());
+            for (Object[] row : rows) {
+                Map<String, Object> booking = new LinkedHashMap<String, Object>();
+                for (Integer column : columns) {
+                    booking.put(PROJECTABLE_FIELDS.get(column), row[column]);
+                }
+                bookings.add(booking);
+            }
+            if (!rows.isEmpty()) {
+                lastId = (Long) rows.get(rows.size() - 1)[0];
+            }
+            size = rows.size();
+            builder = Response.ok(bookings);
+        }
+        
+        if (size == pageSize) {
+            builder.header("Link", Paging.nextLink(uriInfo, lastId));
+        }
+        return builder.build();
+    }
+    
+    /**
+     * <p>Stream all the Bookings, sorted by id, as a single JSON array.</p>
+     *
+     * <p>Unlike {@link #retrieveAllBookings(Long, Integer, String, UriInfo)} the list is never held in memory: the
+     * Bookings are read and written a chunk at a time, so this is the endpoint to use for exporting a large table.</p>
+     *
+     * @param providers The JAX-RS providers, used to serialise the Bookings with the application's ObjectMapper
+     * @return A Response streaming a list of BookingSummary objects
      */
     @GET
-    public Response retrieveAllBookings() {
-        List<Booking> bookings = service.findAllOrderedById();
-        return Response.ok(bookings).build();
+    @Path("/export")
+    public Response exportBookings(@Context Providers providers) {
+        final BookingService bookingService = service;
+        return Response.ok(new JsonArrayStreamingOutput<BookingSummary>(providers) {
+            @Override
+            protected List<BookingSummary> nextChunk(long afterId, int size) {
+                return bookingService.findChunk(afterId, size);
+            }
+    
+            @Override
+            protected long idOf(BookingSummary booking) {
+                return booking.getId();
+            }
+        }).build();
+    }
+    
+    /**
+     * <p>Resolves the comma separated <i>fields</i> query parameter to column positions in
+     * {@link Booking#FIND_PAGE_FIELDS}.</p>
+     * 
+     * @param fields The comma separated field names
+     * @return The column positions, in the order they were asked for
+     * @throws WebApplicationException A Bad Request (400) if an unknown field is asked for
+     */
+    private List<Integer> projectedColumns(String fields) {
+        List<Integer> columns = new ArrayList<Integer>();
+        for (String field : fields.split(",")) {
+            int column = PROJECTABLE_FIELDS.indexOf(field.trim());
+            if (column < 0) {
+                throw Paging.badRequest("fields", "Unknown field '" + field.trim() + "', use any of " + PROJECTABLE_FIELDS);
+            }
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return columns;
     }
-
     
     /**
      * <p>Search for and return a Booking identified by id.</p>
      * 
+     * <p>The ETag of the response is the one to send back in the <i>If-Match</i> header of a conditional update.</p>
+     * 
      * @param id The long parameter value provided as a Booking's id
-     * @return A Response containing a single Booking
+     * @param request The request, whose preconditions are evaluated against the tag of the Booking
+     * @return A Response containing a single Booking, or a 304 (Not Modified) if the client's copy is current
      */
     @GET
     @Path("/{id:[0-9]+}")
-    public Response retrieveBookingById(@PathParam("id") long id) {
+    public Response retrieveBookingById(@PathParam("id") long id, @Context Request request) {
         Booking booking = service.findById(id);
         if (booking == null) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
+        log.fine("findById: found {0}", booking);
         
-        return Response.ok(booking).build();
+        EntityTag tag = EntityTags.of(booking.getId(), booking.getVersion());
+        Response notModified = EntityTags.notModified(request, tag);
+        return notModified != null ? notModified : EntityTags.ok(booking, tag);
     }
     
+    /**
+     * <p>Search for and return a page of the Bookings made by a Customer, sorted by id.</p>
+     * 
+     * <p>The Bookings can be limited to the stays overlapping a range of days with the optional <i>from</i> and
+     * <i>to</i> query parameters (yyyy-MM-dd, both inclusive). When the page is full a <i>Link</i> header points to the
+     * next one.</p>
+     * 
+     * @param id The long parameter value provided as a Customer's id
+     * @param from The first day of the range, or null for no lower bound
+     * @param to The last day of the range, or null for no upper bound
+     * @param afterId The id of the last Booking of the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return, or null for the default page size
+     * @param uriInfo The URI of the request, used to build the link to the next page
+     * @return A Response containing a list of BookingSummary objects, empty if the Customer has none
+     */
     @GET
     @Path("/customers/{id:[0-9]+}")
-    public Response retrieveBookingByCustomer(@PathParam("id") long id) {
-        Booking booking = service.findByCustomer(id);
-        if (booking == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-       // log.info("findByCustomer " + customerId + ": found Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
-        
-        return Response.ok(booking).build();
+    public Response retrieveBookingByCustomer(@PathParam("id") long id, @QueryParam("from") String from,
+                                              @QueryParam("to") String to, @QueryParam("afterId") Long afterId,
+                                              @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+        int pageSize = Paging.limit(limit);
+        List<BookingSummary> bookings = service.findByCustomer(id, DateRange.of(from, to), Paging.afterId(afterId), pageSize);
+        return pageResponse(bookings, pageSize, uriInfo);
     }
+    
+    /**
+     * <p>Search for and return a page of the Bookings of a Hotel, sorted by id.</p>
+     * 
+     * <p>The Bookings can be limited to the stays overlapping a range of days with the optional <i>from</i> and
+     * <i>to</i> query parameters (yyyy-MM-dd, both inclusive). When the page is full a <i>Link</i> header points to the
+     * next one.</p>
+     * 
+     * @param id The long parameter value provided as a Hotel's id
+     * @param from The first day of the range, or null for no lower bound
+     * @param to The last day of the range, or null for no upper bound
+     * @param afterId The id of the last Booking of the previous page, or null for the first page
+     * @param limit The maximum number of Bookings to return, or null for the default page size
+     * @param uriInfo The URI of the request, used to build the link to the next page
+     * @return A Response containing a list of BookingSummary objects, empty if the Hotel has none
+     */
     @GET
     @Path("/hotels/{id:[0-9]+}")
-    public Response retrieveBookingByHotel(@PathParam("id") long id) {
-        Booking booking = service.findByHotel(id);
-        if (booking == null) {
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
+    public Response retrieveBookingByHotel(@PathParam("id") long id, @QueryParam("from") String from,
+                                           @QueryParam("to") String to, @QueryParam("afterId") Long afterId,
+                                           @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+        int pageSize = Paging.limit(limit);
+        List<BookingSummary> bookings = service.findByHotel(id, DateRange.of(from, to), Paging.afterId(afterId), pageSize);
+        return pageResponse(bookings, pageSize, uriInfo);
+    }
+    
+    /**
+     * <p>Builds the response for a page of Bookings, with a <i>Link</i> to the next page if this one is full.</p>
+     * 
+     * @param bookings The page of Booking summaries
+     * @param pageSize The number of Bookings that was asked for
+     * @param uriInfo The URI of the request
+     * @return A Response containing the list of BookingSummary objects
+     */
+    private Response pageResponse(List<BookingSummary> bookings, int pageSize, UriInfo uriInfo) {
+        Response.ResponseBuilder builder = Response.ok(bookings);
+        if (bookings.size() == pageSize) {
+            builder.header("Link", Paging.nextLink(uriInfo, bookings.get(bookings.size() - 1).getId()));
         }
-      //  log.info("findByHotel " + hotelId + ": found Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
-        
-        return Response.ok(booking).build();
+        return builder.build();
     }
 
     /**
@@ -110,10 +289,10 @@ public class BookingRESTService {
     @SuppressWarnings("unused")
     @POST
     public Response createBooking(Booking booking) {
-        log.info("createBooking started. Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
         if (booking == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+        log.info("createBooking started. {0}", booking);
         
         Response.ResponseBuilder builder = null;
 
@@ -124,31 +303,17 @@ public class BookingRESTService {
             // Create a "Resource Created" 201 Response and pass the booking back in case it is needed.
             builder = Response.status(Response.Status.CREATED).entity(booking);
             
-            log.info("createBooking completed. Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
+            log.info("createBooking completed. {0}", booking);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
-            // Handle the unique constrain violation
-            Map<String, String> responseObj = new HashMap<String, String>();
-            //responseObj.put("bookingDate", "That hotel is already booked that day, please use book another day");
-            //builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
-            if(e.toString().contains("and"))
-                responseObj.put("and", "Hotel and customer are not  existed");  
-                builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
-            if(e.toString().contains("Customer"))
-               responseObj.put("Customer", "The customer is not existed");
-                builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
-            if(e.toString().contains("Hotel"))
-               responseObj.put("Hotel", "The hotel is not existed"); 
-               builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
-            if(e.toString().contains("booking"))
-                responseObj.put("booking", "The hotel is already booked on that day");
-                builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
+            log.info("ValidationException - {0}", e);
+            // Handle the missing hotel/customer and unique booking violations
+            builder = createConflictResponse(e);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -158,56 +323,160 @@ public class BookingRESTService {
         return builder.build();
     }
 
+    /**
+     * <p>Creates a new booking like {@link #createBooking(Booking)}, without holding an HTTP worker thread while it is validated
+     * and written. The request is suspended, and resumed by the {@link AsyncDispatcher} with the same response, or
+     * with a 503 (Service Unavailable) if too many asynchronous requests are already waiting.</p>
+     *
+     * @param booking The Booking object, constructed automatically from JSON input, to be <i>created</i>
+     * @param response The suspended request, resumed with the outcome of the create operation
+     */
+    @POST
+    @Path("/async")
+    @ExcludeClassInterceptors
+    public void createBookingAsync(final Booking booking,
+                                   @Suspend(AsyncDispatcher.TIMEOUT_MILLIS) AsynchronousResponse response) {
+        // Call through the EJB view, so that the booking is created in a transaction of its own on the dispatcher thread
+        final BookingRESTService self = context.getBusinessObject(BookingRESTService.class);
+        dispatcher.dispatch(response, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return self.createBooking(booking);
+            }
+        });
+    }
+
+    /**
+     * <p>Creates several new bookings at once, in a single transaction: either all of them are created or none is.</p>
+     * 
+     * <p>If they are all valid the response is 201 (created) with the list of bookings. Otherwise nothing is created and
+     * the response is a list with, for each booking in the request, the same map of fields and related errors as
+     * {@link #createBooking(Booking)} returns, or an empty map if that booking is valid. The status is 400 if any booking
+     * breaks a bean validation rule, and 409 if they only conflict with existing data or each other.</p>
+     * 
+     * @param bookings The list of Bookings, constructed automatically from a JSON array, to be <i>created</i> via
+     * {@link BookingService#createAll(List)}
+     * @return A Response indicating the outcome of the create operation
+     */
+    @POST
+    @Path("/batch")
+    public Response createBookings(List<Booking> bookings) {
+        if (bookings == null || bookings.isEmpty()) {
+            throw Paging.badRequest("bookings", "At least one booking is required");
+        }
+        if (bookings.size() > MAX_BATCH_SIZE) {
+            throw Paging.badRequest("bookings", "At most " + MAX_BATCH_SIZE + " bookings can be created at once");
+        }
+        if (bookings.contains(null)) {
+            throw Paging.badRequest("bookings", "Every booking in the list must be a booking object, not null");
+        }
+        log.info("createBookings started. {0} bookings", bookings.size());
+        
+        Response.ResponseBuilder builder;
+        
+        try {
+            List<ValidationException> errors = service.createAll(bookings);
+            
+            List<Map<String, String>> results = new ArrayList<Map<String, String>>(errors.size());
+            Response.Status status = Response.Status.CREATED;
+            for (ValidationException error : errors) {
+                if (error instanceof ConstraintViolationException) {
+                    results.add(violationMap(((ConstraintViolationException) error).getConstraintViolations()));
+                    status = Response.Status.BAD_REQUEST;
+                } else if (error != null) {
+                    results.add(conflictMap(error));
+                    if (status == Response.Status.CREATED) {
+                        status = Response.Status.CONFLICT;
+                    }
+                } else {
+                    results.add(new HashMap<String, String>());
+                }
+            }
+            
+            if (status == Response.Status.CREATED) {
+                builder = Response.status(status).entity(bookings);
+                log.info("createBookings completed. {0} bookings created", bookings.size());
+            } else {
+                builder = Response.status(status).entity(results);
+                log.info("createBookings rejected with status {0}", status.getStatusCode());
+            }
+        } catch (ConstraintViolationException ce) {
+            log.info("ConstraintViolationException - {0}", ce);
+            // Handle bean validation issues
+            builder = createViolationResponse(ce.getConstraintViolations());
+        } catch (ValidationException e) {
+            log.info("ValidationException - {0}", e);
+            // A concurrent request took one of the days between the validation and the insert
+            builder = createConflictResponse(e);
+        } catch (Exception e) {
+            log.info("Exception - {0}", e);
+            // Handle generic exceptions
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("error", e.getMessage());
+            builder = Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
+        }
+        
+        return builder.build();
+    }
+
     /**
      * <p>Updates a booking with the ID provided in the Booking. Performs validation, and will return a JAX-RS response with either 200 ok,
      * or with a map of fields, and related errors.</p>
      * 
-     * @param booking The Booking object, constructed automatically from JSON input, to be <i>updated</i> via {@link BookingService#update(Booking)}
+     * <p>With an <i>If-Match</i> header holding the ETag the Booking was read with, the update only succeeds if nobody
+     * has changed the Booking since; otherwise it fails with a 412 (Precondition Failed) and the client has to read the
+     * Booking again. The response to a conditional update carries the new ETag.</p>
+     * 
+     * @param booking The Booking object, constructed automatically from JSON input, to be <i>updated</i> via {@link BookingService#update(Booking, Long)}
      * @param id The long parameter value provided as the id of the Booking to be updated
+     * @param headers The headers of the request, which may hold an If-Match header
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
     @Path("/{id:[0-9][0-9]*}")
-    public Response updateBooking(@PathParam("id") long id, Booking booking) {
+    public Response updateBooking(@PathParam("id") long id, Booking booking, @Context HttpHeaders headers) {
         if (booking == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
-        log.info("updateBooking started. Booking = " +  booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
+        log.info("updateBooking started. {0}", booking);
 
         if (booking.getId() != id) {
             // The client attempted to update the read-only Id. This is not permitted.
             Response response = Response.status(Response.Status.CONFLICT).entity("The booking ID cannot be modified").build();
             throw new WebApplicationException(response);
         }
-        if (service.findById(booking.getId()) == null) {
-            // Verify if the contact exists. Return 404, if not present.
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
+        Long version = EntityTags.expectedVersion(headers, booking.getId());
         
         Response.ResponseBuilder builder = null;
         
         try {
-            // Apply the changes the Booking.
-            service.update(booking);
-            
+            // Apply the changes the Booking, there is no need to check it exists first: the update finds out.
+            service.update(booking, version);
 
             // Create an OK Response and pass the booking back in case it is needed.
             builder = Response.ok(booking);
+            if (version != null) {
+                builder.tag(EntityTags.of(booking.getId(), booking.getVersion()));
+            }
 
-            log.info("updateBooking completed. Booking = " + booking.getId()+ " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
+            log.info("updateBooking completed. {0}", booking);
+        } catch (EntityNotFoundException e) {
+            log.info("EntityNotFoundException - {0}", e);
+            builder = Response.status(Response.Status.NOT_FOUND);
+        } catch (OptimisticLockException e) {
+            log.info("OptimisticLockException - {0}", e);
+            // Someone else has updated the booking since the client read it
+            builder = Response.status(Response.Status.PRECONDITION_FAILED);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
-            // Handle the unique constrain violation
-            Map<String, String> responseObj = new HashMap<String, String>();
-            responseObj.put("error", "This is where errors are displayed that are not related to a specific field");
-            responseObj.put("anotherError", "You can find this error message in /src/main/java/org/jboss/quickstarts/wfk/rest/ContactRESTService.java line 242.");
-            builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
+            log.info("ValidationException - {0}", e);
+            // Handle the missing hotel/customer and unique booking violations
+            builder = createConflictResponse(e);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -228,7 +497,7 @@ public class BookingRESTService {
     @DELETE
     @Path("/{id:[0-9][0-9]*}")
     public Response deleteBooking(@PathParam("id") Long id) {
-        log.info("deleteBooking started. Booking ID = " + id);
+        log.info("deleteBooking started. Booking ID = {0}", id);
         Response.ResponseBuilder builder = null;
 
         Map<String, String> responseObj = new HashMap<String, String>();
@@ -242,9 +511,9 @@ public class BookingRESTService {
             }
 
             builder = Response.noContent();
-            log.info("deleteBooking completed. Booking = " + booking.getId() + " " + booking.getCustomer()+ " " + booking.getHotel() + " " + booking.getBookingDate());
+            log.info("deleteBooking completed. {0}", booking);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             responseObj.put("error", e.getMessage());
             builder = Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
@@ -261,15 +530,58 @@ public class BookingRESTService {
      * @return A Bad Request (400) Response containing all violation messages
      */
     private Response.ResponseBuilder createViolationResponse(Set<ConstraintViolation<?>> violations) {
-        log.fine("Validation completed. violations found: " + violations.size());
+        log.fine("Validation completed. violations found: {0}", violations.size());
 
+        return Response.status(Response.Status.BAD_REQUEST).entity(violationMap(violations));
+    }
+
+    /**
+     * <p>Builds the map of violation fields, and their message, returned in a "Bad Request" response.</p>
+     * 
+     * @param violations A Set of violations to be reported
+     * @return A map of each violated field to its message
+     */
+    private Map<String, String> violationMap(Set<ConstraintViolation<?>> violations) {
         Map<String, String> responseObj = new HashMap<String, String>();
 
         for (ConstraintViolation<?> violation : violations) {
             responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
         }
 
-        return Response.status(Response.Status.BAD_REQUEST).entity(responseObj);
+        return responseObj;
+    }
+
+    /**
+     * <p>Creates a JAX-RS "Conflict" response for a ValidationException raised by {@link BookingValidator} or by the
+     * (hotelId, booking_date) unique constraint, with a map of the offending field and its message.</p>
+     *
+     * @param e The ValidationException describing the conflict
+     * @return A Conflict (409) Response containing the conflict messages
+     */
+    private Response.ResponseBuilder createConflictResponse(ValidationException e) {
+        return Response.status(Response.Status.CONFLICT).entity(conflictMap(e));
+    }
+
+    /**
+     * <p>Builds the map of conflicting fields, and their message, returned in a "Conflict" response.</p>
+     *
+     * @param e The ValidationException describing the conflict
+     * @return A map of each conflicting field to its message
+     */
+    private Map<String, String> conflictMap(ValidationException e) {
+        Map<String, String> responseObj = new HashMap<String, String>();
+        String message = String.valueOf(e.getMessage());
+
+        if (message.contains("and"))
+            responseObj.put("and", "Hotel and customer are not  existed");
+        if (message.contains("Customer"))
+            responseObj.put("Customer", "The customer is not existed");
+        if (message.contains("Hotel"))
+            responseObj.put("Hotel", "The hotel is not existed");
+        if (message.contains("booking"))
+            responseObj.put("booking", "The hotel is already booked on one of those days");
+
+        return responseObj;
     }
 
 
@@ -3,6 +3,11 @@ package org.jboss.quickstarts.wfk.booking;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -12,36 +17,82 @@ import javax.validation.ValidationException;
 
 import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class BookingRepository {
     
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
     
     @Inject
     private EntityManager em;
+
+    @Inject
+    private BookingOccupancyIndex occupancy;
     
-    List<Booking> findAllOrderedById() {
-        TypedQuery<Booking> query = em.createNamedQuery(Booking.FIND_ALL, Booking.class);
+    /**
+     * <p>Returns one page of Booking summaries ordered by id, starting after the given id.</p>
+     *
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects
+     */
+    List<BookingSummary> findPage(long afterId, int limit) {
+        TypedQuery<BookingSummary> query = em.createNamedQuery(Booking.FIND_PAGE, BookingSummary.class)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit);
         return query.getResultList();
     }
     
-    List<Booking> findByHotelId(Long hotelId) {
-        TypedQuery<Booking> query = em.createNamedQuery(Booking.FIND_BY_HOTEL, Booking.class).setParameter("hotelId", hotelId);
+    /**
+     * <p>Returns one page of Bookings ordered by id as {id, bookingDate, checkOutDate, hotelId, customerId} rows. The
+     * hotel and customer are never loaded.</p>
+     *
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of rows to return
+     * @return List of Object[] rows
+     */
+    @SuppressWarnings("unchecked")
+    List<Object[]> findPageFields(long afterId, int limit) {
+        Query query = em.createNamedQuery(Booking.FIND_PAGE_FIELDS)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit);
         return query.getResultList();
     }
+    
+    /**
+     * <p>Returns the next chunk of Booking summaries, sorted by id, for streaming the whole table.</p>
+     *
+     * <p>Summaries are not managed by the persistence context, so nothing accumulates there from one chunk to the next
+     * and memory use stays bounded by the chunk size.</p>
+     *
+     * @param afterId The id of the last Booking of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Bookings to return
+     * @return List of BookingSummary objects
+     */
+    List<BookingSummary> findChunk(long afterId, int size) {
+        return findPage(afterId, size);
+    }
+    
     /**
-     * <p>Returns a single Booking object, specified by a Long id.<p/>
+     * <p>Returns a single Booking object, specified by a Long id, with its Hotel and Customer fetched in the same
+     * query so that they can still be serialised once the transaction has ended.<p/>
      *
      * @param id The id field of the Booking to be returned
-     * @return The Booking with the specified id
+     * @return The Booking with the specified id, or null if there is none
      */
     Booking findById(Long id) {
-        return em.find(Booking.class, id);
+        List<Booking> bookings = em.createNamedQuery(Booking.FIND_BY_ID, Booking.class)
+            .setParameter("id", id)
+            .getResultList();
+        return bookings.isEmpty() ? null : bookings.get(0);
     }
     
     Booking findByDate(Date bookingDate){
@@ -49,13 +100,44 @@ public class BookingRepository {
         return query.getSingleResult();
     }
     
-    Booking findByHotel(Long hotelId){
-        TypedQuery<Booking> query = em.createNamedQuery(Booking.FIND_BY_HOTEL, Booking.class) .setParameter("hotelId", hotelId);
-        return query.getSingleResult();
+    /**
+     * <p>Returns a page of the summaries of the Bookings of a Hotel, sorted by id, whose stay overlaps the given range.</p>
+     *
+     * @param hotelId The id of the Hotel
+     * @param from The first day of the range
+     * @param to The last day of the range
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects, empty if there are none
+     */
+    List<BookingSummary> findByHotel(Long hotelId, Date from, Date to, long afterId, int limit) {
+        TypedQuery<BookingSummary> query = em.createNamedQuery(Booking.FIND_BY_HOTEL, BookingSummary.class)
+            .setParameter("hotelId", hotelId)
+            .setParameter("from", from)
+            .setParameter("to", to)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit);
+        return query.getResultList();
     }
-    Booking findByCustomer(Long customerId){
-        TypedQuery<Booking> query = em.createNamedQuery(Booking.FIND_BY_CUSTOMER, Booking.class) .setParameter("customerId", customerId);
-        return query.getSingleResult();
+    
+    /**
+     * <p>Returns a page of the summaries of the Bookings of a Customer, sorted by id, whose stay overlaps the given range.</p>
+     *
+     * @param customerId The id of the Customer
+     * @param from The first day of the range
+     * @param to The last day of the range
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects, empty if there are none
+     */
+    List<BookingSummary> findByCustomer(Long customerId, Date from, Date to, long afterId, int limit) {
+        TypedQuery<BookingSummary> query = em.createNamedQuery(Booking.FIND_BY_CUSTOMER, BookingSummary.class)
+            .setParameter("customerId", customerId)
+            .setParameter("from", from)
+            .setParameter("to", to)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit);
+        return query.getResultList();
     }
     
     
@@ -72,36 +154,189 @@ public class BookingRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Booking create(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingRepository.create() - Creating " + booking.getId());
+        log.fine("BookingRepository.create() - Creating {0}", booking);
+        
+        reserve(Collections.singletonList(booking));
         
         // Write the booking to the database.
         em.persist(booking);
+        flush();
+        
+        // Let the occupancy index know that the hotel is now taken on that day.
+        occupancy.book(booking);
         
         return booking;
     }
     
+    /**
+     * <p>Persists the provided Booking objects to the application database with a single flush, so that Hibernate can
+     * send the inserts to the database in JDBC batches (see hibernate.jdbc.batch_size in persistence.xml).</p>
+     *
+     * @param bookings The Booking objects to be persisted
+     * @return The Booking objects that have been persisted
+     * @throws ValidationException If one of the stays overlaps a stay that is already booked
+     */
+    List<Booking> createAll(List<Booking> bookings) throws ValidationException {
+        log.fine("BookingRepository.createAll() - Creating {0} bookings", bookings.size());
+        
+        reserve(bookings);
+        
+        for (Booking booking : bookings) {
+            em.persist(booking);
+        }
+        flush();
+        
+        for (Booking booking : bookings) {
+            occupancy.book(booking);
+        }
+        
+        return bookings;
+    }
+    
     /**
      * <p>Updates an existing Booking object in the application database with the provided Booking object.</p>
      *
-     * <p>{@link javax.persistence.EntityManager#merge(Object) merge(Object)} creates a new instance of your entity,
-     * copies the state from the supplied entity, and makes the new copy managed. The instance you pass in will not be
-     * managed (any changes you make will not be part of the transaction - unless you call merge again).</p>
+     * <p>The Booking is written with a single bulk UPDATE rather than merge(Object), which would first have to load the
+     * stored Booking. When the client has sent the version it last saw, the UPDATE only matches the row if nobody has
+     * changed it since, so a lost update is caught by the database without holding a lock while the client edits. Only
+     * when no row matched is the Booking looked up again, to tell a stale version from one that no longer exists.</p>
      *
-     * <p>merge(Object) however must have an object with the @Id already generated.</p>
+     * <p>The hotel is still locked by {@link #reserve(List)}, as the new stay must not overlap another one.</p>
      *
-     * @param booking The Booking object to be merged with an existing Booking
-     * @return The Booking that has been merged
+     * @param booking The Booking object to be written over an existing Booking
+     * @param version The version the client expects the stored Booking to have, or null to update it unconditionally
+     * @return The Booking that has been updated, with its new version if that is known
+     * @throws EntityNotFoundException If there is no Booking with that id
+     * @throws OptimisticLockException If the stored Booking is not at the expected version
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingRepository.update() - Updating " + booking.getId());
+    Booking update(Booking booking, Long version) throws ConstraintViolationException, ValidationException, Exception {
+        log.fine("BookingRepository.update() - Updating {0} at version {1}", booking, version);
+        
+        reserve(Collections.singletonList(booking));
+        
+        Query query = em.createNamedQuery(version == null ? Booking.UPDATE : Booking.UPDATE_VERSION)
+            .setParameter("id", booking.getId())
+            .setParameter("hotel", booking.getHotel())
+            .setParameter("customer", booking.getCustomer())
+            .setParameter("bookingDate", booking.getBookingDate())
+            .setParameter("checkOutDate", booking.getCheckOutDate());
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        
+        int updated;
+        try {
+            updated = query.executeUpdate();
+        } catch (PersistenceException e) {
+            if (PersistenceErrors.isUniqueViolation(e)) {
+                throw new ValidationException("Unique booking Violation");
+            }
+            throw e;
+        }
+        if (updated == 0) {
+            if (em.find(Booking.class, booking.getId()) == null) {
+                throw new EntityNotFoundException("No Booking with id " + booking.getId());
+            }
+            throw new OptimisticLockException("Booking " + booking.getId() + " is no longer at version " + version);
+        }
+        if (version != null) {
+            booking.setVersion(version + 1);
+        }
         
-        // Either update the booking or add it if it can't be found.
-        em.merge(booking);
+        // The hotel or the dates may have changed, so move the booking to its new stay in the occupancy index.
+        occupancy.release(booking.getId());
+        occupancy.book(booking);
         
         return booking;
     }
     
+    /**
+     * <p>Locks the hotel of each Booking and checks again, in the database, that none of the stays overlaps one that is
+     * already booked.</p>
+     *
+     * <p>{@link BookingValidator} has checked the stays before, against the in-memory {@link BookingOccupancyIndex}, but a
+     * concurrent request could have booked the same nights since, possibly on another node. Overlapping stays are not
+     * caught by a unique constraint, so instead the hotel rows are locked (in id order, so that two requests cannot
+     * deadlock) until the transaction ends, and the stored stays are queried under that lock. A concurrent booking for
+     * the same hotel waits for this one to commit, and then fails this same check.</p>
+     *
+     * @param bookings The Bookings about to be written
+     * @throws ValidationException If one of the stays now overlaps another one
+     */
+    private void reserve(List<Booking> bookings) throws ValidationException {
+        SortedSet<Long> hotelIds = new TreeSet<Long>();
+        for (Booking booking : bookings) {
+            hotelIds.add(booking.getHotel().getId());
+        }
+        for (Long hotelId : hotelIds) {
+            em.find(Hotel.class, hotelId, LockModeType.PESSIMISTIC_WRITE);
+        }
+        for (Booking booking : bookings) {
+            if (isBooked(booking.getHotel().getId(), booking.getBookingDate(), booking.getCheckOutDate(),
+                booking.getId())) {
+                throw new ValidationException("Unique booking Violation");
+            }
+        }
+    }
+
+    /**
+     * <p>Checks in the database whether any night from the check-in day up to the check-out day is already booked at
+     * the hotel by a Booking other than the one with the given id.</p>
+     *
+     * <p>The stored stays of a hotel do not overlap each other, so only the ones checking in during this stay and the
+     * last one checking in before it can overlap it. Both are found by seeks on the (hotelId, booking_date) index, so
+     * the cost depends on the nights of this stay, not on how many stays the hotel has had.</p>
+     *
+     * @param hotelId The id of the Hotel to check
+     * @param checkIn The first night of the stay
+     * @param checkOut The day the stay ends, which is not itself booked
+     * @param bookingId The id of the Booking being checked, or null if it is a new Booking
+     * @return true if another Booking holds that hotel on one of those nights
+     */
+    boolean isBooked(Long hotelId, Date checkIn, Date checkOut, Long bookingId) {
+        List<Long> checkingIn = em.createNamedQuery(Booking.FIND_IDS_CHECKING_IN, Long.class)
+            .setParameter("hotelId", hotelId)
+            .setParameter("checkIn", checkIn)
+            .setParameter("checkOut", checkOut)
+            .setMaxResults(2)
+            .getResultList();
+        // An updated Booking overlaps the stay it is replacing, which does not count
+        for (Long id : checkingIn) {
+            if (!id.equals(bookingId)) {
+                return true;
+            }
+        }
+
+        List<Object[]> before = em.createNamedQuery(Booking.FIND_LAST_STAY_BEFORE, Object[].class)
+            .setParameter("hotelId", hotelId)
+            .setParameter("checkIn", checkIn)
+            .setMaxResults(1)
+            .getResultList();
+        if (before.isEmpty() || before.get(0)[0].equals(bookingId)) {
+            // If it is the stay being replaced, the ones before it had already ended when it checked in
+            return false;
+        }
+        return BookingOccupancyIndex.dayOf((Date) before.get(0)[1]) > BookingOccupancyIndex.dayOf(checkIn);
+    }
+    
+    /**
+     * <p>Writes pending changes to the database straight away, so that a clash with the (hotelId, booking_date) unique
+     * constraint is reported here as a booking conflict instead of failing the whole transaction at commit time.</p>
+     *
+     * @throws ValidationException If the hotel is already booked on that day
+     */
+    private void flush() throws ValidationException {
+        try {
+            em.flush();
+        } catch (PersistenceException e) {
+            if (PersistenceErrors.isUniqueViolation(e)) {
+                throw new ValidationException("Unique booking Violation");
+            }
+            throw e;
+        }
+    }
+    
     /**
      * <p>Deletes the provided Booking object from the application database if found there</p>
      *
@@ -110,7 +345,7 @@ public class BookingRepository {
      * @throws Exception
      */
     Booking delete(Booking booking) throws Exception {
-        log.info("BookingRepository.delete() - Deleting " + booking.getId());
+        log.fine("BookingRepository.delete() - Deleting {0}", booking);
         
         if (booking.getId() != null) {
             /*
@@ -127,9 +362,10 @@ public class BookingRepository {
              * Therefore we merge first and then we can remove it.
              */
             em.remove(em.merge(booking));
+            occupancy.release(booking.getId());
             
         } else {
-            log.info("BookingRepository.delete() - No ID was found so can't Delete.");
+            log.fine("BookingRepository.delete() - No ID was found so can't Delete.");
         }
         
         return booking;
@@ -10,6 +10,8 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
@@ -20,7 +22,6 @@ import javax.validation.ValidationException;
 import java.net.URI;
 import java.util.Date;
 import java.util.List;
-import java.util.logging.Logger;
 
 
 //@Dependent annotation designates the default scope, listed here so that you know what scope is being used.
@@ -28,7 +29,7 @@ import java.util.logging.Logger;
 public class BookingService {
     
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
     
     @Inject
     private BookingValidator validator;
@@ -40,12 +41,36 @@ public class BookingService {
     private @Named("httpClient") CloseableHttpClient httpClient;
     
     /**
-     * <p>Returns a List of all persisted {@link Booking} objects, sorted alphabetically by first name.<p/>
+     * <p>Returns one page of Booking summaries, sorted by id.<p/>
      *
-     * @return List of Booking objects
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects
      */
-    List<Booking> findAllOrderedById() {
-        return crud.findAllOrderedById();
+    List<BookingSummary> findPage(long afterId, int limit) {
+        return crud.findPage(afterId, limit);
+    }
+    
+    /**
+     * <p>Returns one page of Bookings, sorted by id, as {id, bookingDate, checkOutDate, hotelId, customerId} rows.<p/>
+     *
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of rows to return
+     * @return List of Object[] rows
+     */
+    List<Object[]> findPageFields(long afterId, int limit) {
+        return crud.findPageFields(afterId, limit);
+    }
+    
+    /**
+     * <p>Returns the next chunk of Booking summaries, sorted by id, for streaming the whole table.<p/>
+     *
+     * @param afterId The id of the last Booking of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Bookings to return
+     * @return List of BookingSummary objects
+     */
+    List<BookingSummary> findChunk(long afterId, int size) {
+        return crud.findChunk(afterId, size);
     }
     
     /**
@@ -62,11 +87,30 @@ public class BookingService {
         return crud.findByDate(bookingDate);
     }
     
-    Booking findByCustomer(Long customerId) {
-        return crud.findByCustomer(customerId);
+    /**
+     * <p>Returns a page of the summaries of the Bookings of a Customer, sorted by id, whose stay overlaps the given range.<p/>
+     *
+     * @param customerId The id of the Customer
+     * @param range The days the stays overlap
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects, empty if there are none
+     */
+    List<BookingSummary> findByCustomer(Long customerId, DateRange range, long afterId, int limit) {
+        return crud.findByCustomer(customerId, range.getFrom(), range.getTo(), afterId, limit);
     }
-    Booking findByHotel(Long hotelId) {
-        return crud.findByHotel(hotelId);
+    
+    /**
+     * <p>Returns a page of the summaries of the Bookings of a Hotel, sorted by id, whose stay overlaps the given range.<p/>
+     *
+     * @param hotelId The id of the Hotel
+     * @param range The days the stays overlap
+     * @param afterId The id of the last Booking of the previous page (0 for the first page)
+     * @param limit The maximum number of Bookings to return
+     * @return List of BookingSummary objects, empty if there are none
+     */
+    List<BookingSummary> findByHotel(Long hotelId, DateRange range, long afterId, int limit) {
+        return crud.findByHotel(hotelId, range.getFrom(), range.getTo(), afterId, limit);
     }
     
     /**
@@ -79,7 +123,10 @@ public class BookingService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Booking create(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingService.create() - Creating " + booking.getId() + " " + booking.getCustomer() +" " + booking.getHotel());
+        log.info("BookingService.create() - Creating {0}", booking);
+        
+        // A booking without a check-out date is for one night.
+        booking.defaultCheckOutDate();
         
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
@@ -88,22 +135,55 @@ public class BookingService {
         return crud.create(booking);
     }
     
+    /**
+     * <p>Writes the provided Booking objects to the application database, all of them or none.<p/>
+     *
+     * <p>The Bookings are validated together using {@link BookingValidator#validateBookings(List)}. If any of them is
+     * invalid nothing is written.<p/>
+     *
+     * @param bookings The Booking objects to be written to the database using a {@link BookingRepository} object
+     * @return For each Booking, in order, the exception describing why it is invalid, or null if it is valid; all
+     * null if the Bookings have been written
+     * @throws ValidationException If a hotel was booked on one of the days by a concurrent request
+     */
+    List<ValidationException> createAll(List<Booking> bookings) throws ValidationException {
+        log.info("BookingService.createAll() - Creating {0} bookings", bookings.size());
+        
+        for (Booking booking : bookings) {
+            booking.defaultCheckOutDate();
+        }
+        
+        // Check all the Bookings at once, and only write them if they all pass.
+        List<ValidationException> errors = validator.validateBookings(bookings);
+        for (ValidationException error : errors) {
+            if (error != null) {
+                return errors;
+            }
+        }
+        
+        crud.createAll(bookings);
+        return errors;
+    }
+    
     /**
      * <p>Updates an existing Booking object in the application database with the provided Booking object.<p/>
      *
      * <p>Validates the data in the provided Booking object using a BookingValidator object.<p/>
      *
      * @param booking The Booking object to be passed as an update to the application database
+     * @param version The version the client expects the stored Booking to have, or null to update it unconditionally
      * @return The Booking object that has been successfully updated in the application database
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Booking update(Booking booking) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("BookingService.update() - Updating " + booking.getId() + " " + booking.getCustomer() +" " + booking.getHotel());
+    Booking update(Booking booking, Long version) throws ConstraintViolationException, ValidationException, Exception {
+        log.info("BookingService.update() - Updating {0}", booking);
+        
+        booking.defaultCheckOutDate();
         
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(booking);
-        // Either update the booking or add it if it can't be found.
-        return crud.update(booking);
+        // Update the booking, provided it exists and is still at the expected version.
+        return crud.update(booking, version);
     }
     
     /**
@@ -114,7 +194,7 @@ public class BookingService {
      * @throws Exception
      */
     Booking delete(Booking booking) throws Exception {
-        log.info("BookingService.delete() - Deleting " + booking.getId() + " " + booking.getCustomer() +" " + booking.getHotel());
+        log.info("BookingService.delete() - Deleting {0}", booking);
         
         Booking deletedBooking = null;
         
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.booking;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>A flat, read-only view of a {@link Booking} and its stay, together with the name of its Hotel and Customer, as
+ * returned by the booking list endpoints.</p>
+ *
+ * <p>Summaries are built by the constructor expression in {@link #SELECT}, so a whole page of them is read with a
+ * single SQL statement joining the three tables, rather than one select for the page followed by one for each hotel
+ * and customer that is not already in the persistence context.</p>
+ *
+ * @see Booking#FIND_PAGE
+ */
+public class BookingSummary implements Serializable {
+    /** Default value included to remove warning. Remove or modify at will. **/
+    private static final long serialVersionUID = 1L;
+
+    /** The select and join clauses shared by the summary queries, which add their own where and order by clauses. */
+    static final String SELECT = "SELECT NEW org.jboss.quickstarts.wfk.booking.BookingSummary("
+        + "b.id, b.bookingDate, b.checkOutDate, h.id, h.name, c.id, c.firstName, c.lastName) "
+        + "FROM Booking b JOIN b.hotel h JOIN b.customer c ";
+
+    private final Long id;
+    private final Date bookingDate;
+    private final Date checkOutDate;
+    private final Long hotelId;
+    private final String hotelName;
+    private final Long customerId;
+    private final String customerName;
+
+    public BookingSummary(Long id, Date bookingDate, Date checkOutDate, Long hotelId, String hotelName, Long customerId,
+                          String customerFirstName, String customerLastName) {
+        this.id = id;
+        this.bookingDate = bookingDate;
+        this.checkOutDate = checkOutDate;
+        this.hotelId = hotelId;
+        this.hotelName = hotelName;
+        this.customerId = customerId;
+        this.customerName = customerFirstName + " " + customerLastName;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Date getBookingDate() {
+        return bookingDate;
+    }
+
+    public Date getCheckOutDate() {
+        return checkOutDate;
+    }
+
+    public Long getHotelId() {
+        return hotelId;
+    }
+
+    public String getHotelName() {
+        return hotelName;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+}
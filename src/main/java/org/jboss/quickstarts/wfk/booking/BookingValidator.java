@@ -1,20 +1,22 @@
 package org.jboss.quickstarts.wfk.booking;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 
-import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.customer.CustomerRepository;
-import org.jboss.quickstarts.wfk.hotel.Hotel;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 
 
@@ -28,13 +30,24 @@ public class BookingValidator {
     private CustomerRepository customercrud;
     @Inject
     private HotelRepository hotelcrud;
+    @Inject
+    private BookingOccupancyIndex occupancy;
 
     /**
      * <p>Validates the given Booking object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
      *
+     * <p>If the hotel or the customer does not exist, or the hotel is already booked on one of the nights of the stay,
+     * it throws a regular validation exception so that it can be interpreted separately.</p>
+     *
+     * <p>Each check is made once. Hotels and Customers are held in the second-level cache, so their existence is
+     * normally answered without a query, and the overlap with other stays is answered by the in-memory
+     * {@link BookingOccupancyIndex}, at the same cost however many nights the stay has. Only a stay the index reports
+     * as booked is looked up in the database.</p>
+     *
      * @param booking The Booking object to be validated
      * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If the hotel or customer does not exist, or the stay overlaps another one
      */
     void validateBooking(Booking booking) throws ConstraintViolationException, ValidationException {
         // Create a bean validator and check for issues.
@@ -43,88 +56,129 @@ public class BookingValidator {
         if (!violations.isEmpty()) {
             throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
         }
-        if (booking != null){
-        	if((hotelNotExist(booking.getHotel().getId(), booking.getId()) == false) || (customerNotExist(booking.getCustomer().getId(), booking.getId()) == false) || bookingExist(booking.getHotel().getId(), booking.getId(), booking.getBookingDate()))
-        	{
-        		if ((hotelNotExist(booking.getHotel().getId(), booking.getId()) == false) && (customerNotExist(booking.getCustomer().getId(), booking.getId()) == false))
-        			throw new ValidationException("Hotel and customer are not exist");
-        		else if ((hotelNotExist(booking.getHotel().getId(), booking.getId()) == false))
-        			throw new ValidationException("Hotel is not exists");
-        		else if ((customerNotExist(booking.getCustomer().getId(), booking.getId()) == false))
-        			throw new ValidationException("Customer is not exists");
-        	}
-        	if (bookingExist(booking.getHotel().getId(), booking.getId(), booking.getBookingDate()))
-    			throw new ValidationException("Unique booking Violation");
-        }
+
+        Long hotelId = booking.getHotel().getId();
+        Long customerId = booking.getCustomer().getId();
+
+        boolean hotelExists = hotelExist(hotelId);
+        boolean customerExists = customerExist(customerId);
+
+        if (!hotelExists && !customerExists)
+            throw new ValidationException("Hotel and customer are not exist");
+        else if (!hotelExists)
+            throw new ValidationException("Hotel is not exists");
+        else if (!customerExists)
+            throw new ValidationException("Customer is not exists");
+
+        if (bookingExist(hotelId, booking.getId(), booking.getBookingDate(), booking.getCheckOutDate()))
+            throw new ValidationException("Unique booking Violation");
     }
-        
-    
-    boolean customerNotExist(Long customerId, Long id) {
-        Customer booking = null;
-        Customer bookingWithID = null;
-        try {
-        	booking = customercrud.findById(customerId);
-        } catch (NoResultException e) {
-            // ignore
-        }
 
-        if (booking != null && id != null) {
-            try {
-            	bookingWithID = customercrud.findById(id);
-                if (bookingWithID != null && bookingWithID.getId().equals(customerId)) {
-                	booking = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
+    /**
+     * <p>Validates a batch of new Bookings together, with the same checks and messages as
+     * {@link #validateBooking(Booking)}.</p>
+     *
+     * <p>The hotels and customers of the whole batch are looked up with one query each, and each Booking is checked for
+     * an overlap with the existing stays and with the stays of the Bookings before it in the batch.</p>
+     *
+     * @param bookings The Bookings to be validated
+     * @return For each Booking, in order, the ConstraintViolationException or ValidationException it would have raised,
+     * or null if it is valid
+     */
+    List<ValidationException> validateBookings(List<Booking> bookings) {
+        List<ValidationException> errors = new ArrayList<ValidationException>(bookings.size());
+        Set<Long> hotelIds = new HashSet<Long>();
+        Set<Long> customerIds = new HashSet<Long>();
+
+        for (Booking booking : bookings) {
+            Set<ConstraintViolation<Booking>> violations = validator.validate(booking);
+            if (violations.isEmpty()) {
+                errors.add(null);
+                hotelIds.add(booking.getHotel().getId());
+                customerIds.add(booking.getCustomer().getId());
+            } else {
+                errors.add(new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations)));
             }
         }
-        return booking != null;
-    }
-    
-   
-    boolean hotelNotExist(Long hotelId, Long id) {
-        Hotel booking = null;
-        Hotel bookingWithID = null;
-        try {
-        	booking = hotelcrud.findById(hotelId);
-        } catch (NoResultException e) {
-            // ignore
-        }
 
-        if (booking != null && id != null) {
-            try {
-            	bookingWithID = hotelcrud.findById(id);
-                if (bookingWithID != null && bookingWithID.getId().equals(hotelId)) {
-                	booking = null;
+        Set<Long> hotels = hotelcrud.findExistingIds(hotelIds);
+        Set<Long> customers = customercrud.findExistingIds(customerIds);
+        // hotel id -> (check-in day -> check-out day) of the stays already taken by earlier Bookings of this batch
+        Map<Long, NavigableMap<Integer, Integer>> taken = new HashMap<Long, NavigableMap<Integer, Integer>>();
+
+        for (int i = 0; i < bookings.size(); i++) {
+            if (errors.get(i) != null) {
+                continue;
+            }
+            Booking booking = bookings.get(i);
+            Long hotelId = booking.getHotel().getId();
+            boolean hotelExists = hotels.contains(hotelId);
+            boolean customerExists = customers.contains(booking.getCustomer().getId());
+
+            if (!hotelExists && !customerExists) {
+                errors.set(i, new ValidationException("Hotel and customer are not exist"));
+            } else if (!hotelExists) {
+                errors.set(i, new ValidationException("Hotel is not exists"));
+            } else if (!customerExists) {
+                errors.set(i, new ValidationException("Customer is not exists"));
+            } else {
+                NavigableMap<Integer, Integer> stays = taken.get(hotelId);
+                if (stays == null) {
+                    stays = new TreeMap<Integer, Integer>();
+                    taken.put(hotelId, stays);
+                }
+                int checkIn = BookingOccupancyIndex.dayOf(booking.getBookingDate());
+                int checkOut = BookingOccupancyIndex.dayOf(booking.getCheckOutDate());
+                // The stays taken so far do not overlap, so only the last one checking in before this one checks out can
+                Map.Entry<Integer, Integer> before = stays.lowerEntry(checkOut);
+                boolean overlapsBatch = before != null && before.getValue() > checkIn;
+                if (overlapsBatch || bookingExist(hotelId, booking.getId(), booking.getBookingDate(), booking.getCheckOutDate())) {
+                    errors.set(i, new ValidationException("Unique booking Violation"));
+                } else {
+                    stays.put(checkIn, checkOut);
                 }
-            } catch (NoResultException e) {
-                // ignore
             }
         }
-        return booking != null;
+        return errors;
     }
-    
-    boolean bookingExist(Long hotelId, Long bookingId, Date date) {
-    	List<Booking> bookings = null;
-        Booking booking = null;
-        try {
-        	bookings = crud.findByHotelId(hotelId);
-        } catch (NoResultException e) {
-            // ignore
-        }
-        
-        try{
-        	for(Booking temp: bookings){
-        		
-        		if(temp.getBookingDate().equals(date) && temp.getId()!= bookingId)
-        		   booking = temp;     		
-        	}
-        }catch (Exception e){
-        	
-        }
 
-        return booking != null;
+    /**
+     * <p>Checks if a customer with the given id is registered.</p>
+     *
+     * @param customerId The id of the Customer making the booking
+     * @return boolean which represents whether the customer was found
+     */
+    boolean customerExist(Long customerId) {
+        return customerId != null && customercrud.findById(customerId) != null;
     }
- 
-  
+
+    /**
+     * <p>Checks if a hotel with the given id is registered.</p>
+     *
+     * @param hotelId The id of the Hotel being booked
+     * @return boolean which represents whether the hotel was found
+     */
+    boolean hotelExist(Long hotelId) {
+        return hotelId != null && hotelcrud.findById(hotelId) != null;
+    }
+
+    /**
+     * <p>Checks if the hotel is already booked on any night of the given stay by a booking other than the one being
+     * validated.</p>
+     *
+     * <p>A free stay is answered by the {@link BookingOccupancyIndex} without a query. The index may still hold a stay
+     * that another server has since moved or deleted, so a booked one is confirmed in the database before it is
+     * reported; neither check loads the bookings of the hotel.</p>
+     *
+     * @param hotelId The id of the Hotel to be booked
+     * @param bookingId The id of the Booking being validated, or null if it is a new Booking
+     * @param checkIn The first night to be booked
+     * @param checkOut The day the stay ends
+     * @return boolean which represents whether the hotel is already booked on one of those nights
+     */
+    boolean bookingExist(Long hotelId, Long bookingId, Date checkIn, Date checkOut) {
+        return occupancy.isBooked(hotelId, checkIn, checkOut, bookingId)
+            && crud.isBooked(hotelId, checkIn, checkOut, bookingId);
+    }
+
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -43,9 +44,26 @@ import org.hibernate.validator.constraints.NotEmpty;
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
  */
 @Entity //store in database
+/*
+ * Customers are read on every booking and rarely change, so they are kept in the second-level cache (see persistence.xml).
+ * Hibernate updates the cached entry when a Customer is created, updated or deleted through the EntityManager.
+ */
+@Cacheable
 @NamedQueries({
-    @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC"),
-    @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email")
+    @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC",
+        hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
+    @NamedQuery(name = Customer.FIND_ALL_VERSION, query = "SELECT COUNT(c), SUM(c.id), SUM(c.version) FROM Customer c"),
+    @NamedQuery(name = Customer.FIND_NAMES, query = "SELECT c.id, c.firstName, c.lastName FROM Customer c"),
+    @NamedQuery(name = Customer.FIND_PAGE, query = "SELECT c FROM Customer c WHERE c.id > :afterId ORDER BY c.id ASC"),
+    @NamedQuery(name = Customer.FIND_BY_FIRST_NAME, query = "SELECT c FROM Customer c WHERE c.firstName = :firstName "
+        + "ORDER BY c.id ASC"),
+    @NamedQuery(name = Customer.FIND_BY_LAST_NAME, query = "SELECT c FROM Customer c WHERE c.lastName = :lastName "
+        + "ORDER BY c.id ASC"),
+    @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email"),
+    @NamedQuery(name = Customer.FIND_IDS, query = "SELECT c.id FROM Customer c WHERE c.id IN :ids"),
+    @NamedQuery(name = Customer.FIND_EMAILS, query = "SELECT c.email FROM Customer c WHERE c.email IN :emails"),
+    @NamedQuery(name = Customer.FIND_ALL_EMAILS, query = "SELECT c.email FROM Customer c"),
+    @NamedQuery(name = Customer.FIND_IDS_BY_EMAIL, query = "SELECT c.id FROM Customer c WHERE c.email = :email")
 })
 @XmlRootElement
 @Table(name = "Customer", uniqueConstraints = @UniqueConstraint(columnNames = "email")) //table name
@@ -54,7 +72,16 @@ public class Customer implements Serializable {
     private static final long serialVersionUID = 1L;
     
     public static final String FIND_ALL = "Customer.findAll";
+    public static final String FIND_ALL_VERSION = "Customer.findAllVersion";
+    public static final String FIND_NAMES = "Customer.findNames";
+    public static final String FIND_PAGE = "Customer.findPage";
+    public static final String FIND_BY_FIRST_NAME = "Customer.findByFirstName";
+    public static final String FIND_BY_LAST_NAME = "Customer.findByLastName";
     public static final String FIND_BY_EMAIL = "Customer.findByEmail";
+    public static final String FIND_IDS = "Customer.findIds";
+    public static final String FIND_EMAILS = "Customer.findEmails";
+    public static final String FIND_ALL_EMAILS = "Customer.findAllEmails";
+    public static final String FIND_IDS_BY_EMAIL = "Customer.findIdsByEmail";
 
     /*
      * The  error messages match the ones in the UI so that the user isn't confused by two similar error messages for
@@ -66,7 +93,9 @@ public class Customer implements Serializable {
      * variable occurs it can be sent to the correct input field on the form.  
      */
     @Id //id field 
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    // Pooled sequence of its own, starting above the ids seeded by import.sql
+    @SequenceGenerator(name = "Customer_SEQ", sequenceName = "Customer_SEQ", initialValue = 20000, allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "Customer_SEQ")
     private Long id;
 
     @NotNull
@@ -97,6 +126,14 @@ public class Customer implements Serializable {
     @Column(name = "state")
     private String state;
 
+    /*
+     * Incremented by every update, it identifies the representation of the Customer for HTTP caching (see EntityTags).
+     * It is not part of the JSON: an update takes the version of the stored Customer, see CustomerRepository.update().
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
     public Long getId() {
         return id;
     }
@@ -146,4 +183,19 @@ public class Customer implements Serializable {
     public String getState() {
         return this.state;
     }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "Customer[id=" + id + ", name=" + firstName + " " + lastName + ", email=" + email + ", phoneNumber="
+            + phoneNumber + "]";
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+
+/**
+ * <p>An in-memory index of the email addresses used by {@link Customer}s. It lets {@link CustomerValidator} tell that an
+ * address is free without a query, which is the answer for nearly every Customer being created.</p>
+ *
+ * <p>The index is a Bloom filter: it can say an address is certainly not used, or that it may be. Only in the second
+ * case is the database asked, with a projection query returning the ids of the Customers using the address, so that a
+ * Customer being updated can be told apart from another one without loading either.</p>
+ *
+ * <p>The filter is loaded the first time it is asked for, using a projection query that only returns the email column.
+ * From then on it is kept up to date by {@link CustomerRepository} as Customers are written. A filter cannot forget an
+ * address, so one that is no longer used costs a query until the filter is loaded again, which happens once more
+ * addresses have been added than it was sized for.</p>
+ *
+ * <p>An address is added before the transaction writing it commits. Nor can it be taken out again if that transaction
+ * rolls back, so then the whole filter is dropped, and loaded again from the committed addresses when next asked
+ * for.</p>
+ *
+ * <p>Addresses are compared exactly, as the unique constraint on the email column does. That constraint remains the
+ * final guard against two Customers registering with the same address at the same time.</p>
+ *
+ * @see CustomerValidator#emailAlreadyExists(String, Long)
+ */
+@ApplicationScoped
+public class CustomerEmailIndex {
+
+    // 10 bits and 7 hashes per address give a false positive rate of about 1%
+    private static final int BITS_PER_EMAIL = 10;
+    private static final int HASHES = 7;
+
+    // A loaded filter has room for twice the addresses it starts with, and at least this many
+    private static final int MIN_CAPACITY = 1024;
+
+    @Inject
+    private EntityManager em;
+
+    @Inject
+    private TransactionSynchronizationRegistry transactions;
+
+    // Null until first asked for, and again once it is full
+    private final AtomicReference<Filter> filter = new AtomicReference<Filter>();
+
+    /**
+     * <p>Checks whether the email address is used by a Customer other than the one with the given id.</p>
+     *
+     * @param email The email address to check
+     * @param customerId The id of the Customer being validated, or null if it is a new Customer
+     * @return true if another Customer already uses that address
+     */
+    boolean isTaken(String email, Long customerId) {
+        if (!mightBeTaken(email)) {
+            return false;
+        }
+        List<Long> ids = em.createNamedQuery(Customer.FIND_IDS_BY_EMAIL, Long.class)
+            .setParameter("email", email)
+            .getResultList();
+        for (Long id : ids) {
+            if (!id.equals(customerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Checks whether the email address may be used by a Customer, without a query.</p>
+     *
+     * @param email The email address to check
+     * @return false if no Customer uses that address, true if one may
+     */
+    boolean mightBeTaken(String email) {
+        return email != null && filter().mightContain(email);
+    }
+
+    /**
+     * <p>Records that a (persisted) Customer uses the email address.</p>
+     *
+     * <p>If the filter has not been loaded yet it is left alone; it will pick the address up from the database when it
+     * is first asked for.</p>
+     *
+     * @param email The email address of the Customer that has been written to the database
+     */
+    void add(String email) {
+        final Filter current = filter.get();
+        if (current == null || email == null) {
+            return;
+        }
+        if (!current.add(email)) {
+            // Full, drop it so that the next check loads one sized for the Customers there are now
+            filter.compareAndSet(current, null);
+            return;
+        }
+        TransactionUndo.onRollback(transactions, new Runnable() {
+            @Override
+            public void run() {
+                filter.compareAndSet(current, null);
+            }
+        });
+    }
+
+    private Filter filter() {
+        Filter current = filter.get();
+        if (current == null) {
+            current = load();
+            filter.compareAndSet(null, current);
+        }
+        return current;
+    }
+
+    private Filter load() {
+        List<String> emails = em.createNamedQuery(Customer.FIND_ALL_EMAILS, String.class).getResultList();
+
+        Filter loaded = new Filter(Math.max(2 * emails.size(), MIN_CAPACITY));
+        for (String email : emails) {
+            loaded.add(email);
+        }
+        return loaded;
+    }
+
+    /*
+     * A 64 bit FNV-1a hash of the address. Its two halves are combined into the HASHES bit positions (Kirsch and
+     * Mitzenmacher), the second one made odd so that the positions never all coincide.
+     */
+    private static long hash(String email) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < email.length(); i++) {
+            hash ^= email.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class Filter {
+        private final AtomicLongArray words;
+        private final long bits;
+        private final int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Filter(int capacity) {
+            this.capacity = capacity;
+            this.words = new AtomicLongArray((int) (((long) capacity * BITS_PER_EMAIL + 63) / 64));
+            this.bits = words.length() * 64L;
+        }
+
+        // Returns false once the filter holds more addresses than it was sized for
+        private boolean add(String email) {
+            long hash = hash(email);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = bit(h1 + i * h2);
+                int word = bit >>> 6;
+                long mask = 1L << bit;
+                long old = words.get(word);
+                while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask)) {
+                    old = words.get(word);
+                }
+            }
+            return size.incrementAndGet() <= capacity;
+        }
+
+        private boolean mightContain(String email) {
+            long hash = hash(email);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = bit(h1 + i * h2);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int bit(int combined) {
+            return (int) ((combined & 0xffffffffL) % bits);
+        }
+    }
+}
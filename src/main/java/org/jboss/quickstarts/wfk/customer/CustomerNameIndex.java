@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.customer;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+
+/**
+ * <p>The names of the {@link Customer}s, in a {@link PrefixIndex} for the type-ahead search of the customer list.</p>
+ *
+ * <p>A Customer can be found by the start of their first name, their last name or their full name, so "jo", "sm" and
+ * "john s" all find John Smith.</p>
+ *
+ * <p>The index is loaded the first time it is searched, with a projection query returning the id and names of each
+ * Customer, and {@link CustomerRepository} puts every Customer it writes into it from the start. The load skips the
+ * Customers put that way, whose names are newer than the ones it read. A Customer is put before the transaction
+ * writing it commits, and is put back as it was if the transaction rolls back.</p>
+ */
+@ApplicationScoped
+public class CustomerNameIndex {
+
+    @Inject
+    private EntityManager em;
+
+    @Inject
+    private TransactionSynchronizationRegistry transactions;
+
+    private final PrefixIndex names = new PrefixIndex();
+
+    private volatile boolean loaded;
+
+    /**
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Customers to return
+     * @return The id and full name of the matching Customers, by alphabetical order of the name that matched
+     */
+    List<PrefixIndex.Match> suggest(String prefix, int limit) {
+        if (!loaded) {
+            load();
+        }
+        return names.find(prefix, limit);
+    }
+
+    /**
+     * <p>Indexes the (persisted) Customer under their current names.</p>
+     *
+     * @param customer The Customer that has been written to the database
+     */
+    void put(Customer customer) {
+        if (customer.getId() != null) {
+            boolean wasLoaded = loaded;
+            String fullName = customer.getFirstName() + " " + customer.getLastName();
+            revertOnRollback(wasLoaded, names.put(customer.getId(), fullName, customer.getFirstName(),
+                customer.getLastName(), fullName));
+        }
+    }
+
+    /*
+     * Before the index is loaded there is nothing to put back: load() skipped the Customer because of the change, so
+     * once it is reverted the index is loaded again to pick up the committed names.
+     */
+    private void revertOnRollback(boolean wasLoaded, final PrefixIndex.Change change) {
+        final boolean reload = !wasLoaded;
+        TransactionUndo.onRollback(transactions, new Runnable() {
+            @Override
+            public void run() {
+                revert(change, reload);
+            }
+        });
+    }
+
+    // A load in progress finishes first, so that it cannot mark the index loaded again after this
+    private synchronized void revert(PrefixIndex.Change change, boolean reload) {
+        if (names.revert(change) && reload) {
+            loaded = false;
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        List<Object[]> rows = em.createNamedQuery(Customer.FIND_NAMES, Object[].class).getResultList();
+        for (Object[] row : rows) {
+            String firstName = (String) row[1];
+            String lastName = (String) row[2];
+            String fullName = firstName + " " + lastName;
+            names.putIfAbsent((Long) row[0], fullName, firstName, lastName, fullName);
+        }
+        loaded = true;
+    }
+}
@@ -16,16 +16,23 @@
  */
 package org.jboss.quickstarts.wfk.customer;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Logger;
+import java.util.concurrent.Callable;
 
+import javax.annotation.Resource;
 import javax.ejb.NoSuchEntityException;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.interceptor.ExcludeClassInterceptors;
+import javax.interceptor.Interceptors;
 import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
@@ -38,9 +45,29 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Providers;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 
 /**
  * <p>This class exposes the functionality of {@link CustomerService} over HTTP endpoints as a RESTful resource via
@@ -68,22 +95,65 @@ import javax.ws.rs.WebApplicationException;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 @Stateless
+@Interceptors(RequestMetricsInterceptor.class)
 public class CustomerRESTService {
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
     
     @Inject
     private CustomerService service;
     
+    @Inject
+    private AsyncDispatcher dispatcher;
+    
+    @Resource
+    private SessionContext context;
+    
     /**
      * <p>Search for and return all the Customers.  They are sorted alphabetically by name.</p>
+     *
+     * <p>The list is tagged with an ETag. A client that sends it back in <i>If-None-Match</i> gets a 304 (Not Modified)
+     * if no Customer has changed since, without the list being read.</p>
      * 
+     * @param request The request, whose preconditions are evaluated against the tag of the list
      * @return A Response containing a list of Customers
      */
     @GET
-    public Response retrieveAllCustomers() {
+    public Response retrieveAllCustomers(@Context Request request) {
+        // Tag before reading, so a change in between leaves the client with an outdated tag rather than outdated data
+        EntityTag tag = EntityTags.ofAll(service.findAllVersion());
+        Response notModified = EntityTags.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
         List<Customer> customers = service.findAllOrderedByName();
-        return Response.ok(customers).build();
+        return EntityTags.ok(customers, tag);
+    }
+
+    /**
+     * <p>Stream all the Customers, sorted by id, as a single JSON array.</p>
+     *
+     * <p>Unlike {@link #retrieveAllCustomers(Request)} the list is never held in memory: the Customers are read and written a
+     * chunk at a time, so this is the endpoint to use for exporting a large table.</p>
+     *
+     * @param providers The JAX-RS providers, used to serialise the Customers with the application's ObjectMapper
+     * @return A Response streaming a list of Customers
+     */
+    @GET
+    @Path("/export")
+    public Response exportCustomers(@Context Providers providers) {
+        final CustomerService customerService = service;
+        return Response.ok(new JsonArrayStreamingOutput<Customer>(providers) {
+            @Override
+            protected List<Customer> nextChunk(long afterId, int size) {
+                return customerService.findChunk(afterId, size);
+            }
+
+            @Override
+            protected long idOf(Customer customer) {
+                return customer.getId();
+            }
+        }).build();
     }
 
     /**
@@ -108,23 +178,69 @@ public class CustomerRESTService {
         return Response.ok(customer).build();
     }
     
+    /**
+     * <p>Search for the Customers whose first name, last name or full name starts with <i>prefix</i>, to suggest them
+     * as the user types. Case does not matter.</p>
+     * 
+     * <p>The names are held in memory by {@link CustomerNameIndex}, so the database is not queried.</p>
+     * 
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Customers to return, or null for {@link PrefixIndex#DEFAULT_LIMIT}
+     * @return A Response containing the id and full name of each matching Customer
+     */
+    @GET
+    @Path("/suggest")
+    public Response suggestCustomers(@QueryParam("prefix") String prefix, @QueryParam("limit") Integer limit) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            throw Paging.badRequest("prefix", "The start of a name is required");
+        }
+        int size = limit == null ? PrefixIndex.DEFAULT_LIMIT : Paging.limit(limit);
+        return Response.ok(service.suggestByName(prefix, size)).build();
+    }
+
     /**
      * <p>Search for and return a Customer identified by id.</p>
      * 
      * @param id The long parameter value provided as a Customer's id
-     * @return A Response containing a single Customer
+     * @param request The request, whose preconditions are evaluated against the tag of the Customer
+     * @return A Response containing a single Customer, or a 304 (Not Modified) if the client's copy, given by its ETag,
+     *         is current
      */
     @GET
     @Path("/{id:[0-9]+}")
-    public Response retrieveCustomerById(@PathParam("id") long id) {
+    public Response retrieveCustomerById(@PathParam("id") long id, @Context Request request) {
         Customer customer = service.findById(id);
         if (customer == null) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
-                 + customer.getId());
-        
-        return Response.ok(customer).build();
+        log.fine("findById: found {0}", customer);
+
+        EntityTag tag = EntityTags.of(customer.getId(), customer.getVersion());
+        Response notModified = EntityTags.notModified(request, tag);
+        return notModified != null ? notModified : EntityTags.ok(customer, tag);
+    }
+
+    /**
+     * <p>Imports customers in bulk from a CSV file, whose header line names the fields, or from NDJSON with one customer
+     * object per line. Returns a 200 (ok) with a summary of how many records were imported and why any were rejected.</p>
+     *
+     * <p>The upload is read as a stream and written a chunk at a time, so it is not held in memory. The request does not
+     * run in a transaction: each chunk is committed as soon as it is written. If the upload cannot be read to the end,
+     * the import stops there and the summary says it is not complete.</p>
+     *
+     * @param body The uploaded records
+     * @param headers The request headers, giving the format of the upload
+     * @param providers The JAX-RS providers, used to find the application's ObjectMapper
+     * @return A Response holding the {@link ImportSummary}
+     */
+    @POST
+    @Path("/import")
+    @Consumes({RecordReader.TEXT_CSV, RecordReader.APPLICATION_NDJSON})
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Response importCustomers(InputStream body, @Context HttpHeaders headers, @Context Providers providers) {
+        ObjectMapper mapper = JacksonConfig.objectMapper(providers);
+        ImportSummary summary = service.importCustomers(new RecordReader(body, headers.getMediaType(), mapper), mapper);
+        return Response.ok(summary).build();
     }
 
     /**
@@ -137,11 +253,10 @@ public class CustomerRESTService {
     @SuppressWarnings("unused")
     @POST
     public Response createCustomer(Customer customer) {
-        log.info("createCustomer started. Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
-            + customer.getId());
         if (customer == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+        log.info("createCustomer started. {0}", customer);
         
         Response.ResponseBuilder builder = null;
 
@@ -152,20 +267,19 @@ public class CustomerRESTService {
             // Create a "Resource Created" 201 Response and pass the customer back in case it is needed.
             builder = Response.status(Response.Status.CREATED).entity(customer);
             
-            log.info("createCustomer completed. Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
-                +  customer.getId());
+            log.info("createCustomer completed. {0}", customer);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
+            log.info("ValidationException - {0}", e);
             // Handle the unique constrain violation
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("email", "That email is already used, please use a unique email");
             builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -175,6 +289,29 @@ public class CustomerRESTService {
         return builder.build();
     }
 
+    /**
+     * <p>Creates a new customer like {@link #createCustomer(Customer)}, without holding an HTTP worker thread while it is validated
+     * and written. The request is suspended, and resumed by the {@link AsyncDispatcher} with the same response, or
+     * with a 503 (Service Unavailable) if too many asynchronous requests are already waiting.</p>
+     *
+     * @param customer The Customer object, constructed automatically from JSON input, to be <i>created</i>
+     * @param response The suspended request, resumed with the outcome of the create operation
+     */
+    @POST
+    @Path("/async")
+    @ExcludeClassInterceptors
+    public void createCustomerAsync(final Customer customer,
+                                    @Suspend(AsyncDispatcher.TIMEOUT_MILLIS) AsynchronousResponse response) {
+        // Call through the EJB view, so that the customer is created in a transaction of its own on the dispatcher thread
+        final CustomerRESTService self = context.getBusinessObject(CustomerRESTService.class);
+        dispatcher.dispatch(response, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return self.createCustomer(customer);
+            }
+        });
+    }
+
     /**
      * <p>Updates a customer with the ID provided in the Customer. Performs validation, and will return a JAX-RS response with either 200 ok,
      * or with a map of fields, and related errors.</p>
@@ -189,8 +326,7 @@ public class CustomerRESTService {
         if (customer == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
-        log.info("updateCustomer started. Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
-                + customer.getId());
+        log.info("updateCustomer started. {0}", customer);
 
         if (customer.getId() != id) {
             // The client attempted to update the read-only Id. This is not permitted.
@@ -211,14 +347,13 @@ public class CustomerRESTService {
             // Create an OK Response and pass the customer back in case it is needed.
             builder = Response.ok(customer);
 
-            log.info("updateCustomer completed. Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
-                +  customer.getId());
+            log.info("updateCustomer completed. {0}", customer);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
+            log.info("ValidationException - {0}", e);
             // Handle the unique constrain violation
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("email", "That email is already used, please use a unique email");
@@ -226,7 +361,7 @@ public class CustomerRESTService {
             responseObj.put("anotherError", "You can find this error message in /src/main/java/org/jboss/quickstarts/wfk/rest/CustomerRESTService.java line 242.");
             builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -247,7 +382,7 @@ public class CustomerRESTService {
     @DELETE  //cannot delete
     @Path("/{id:[0-9][0-9]*}")
     public Response deleteCustomer(@PathParam("id") Long id) {
-        log.info("deleteCustomer started. Customer ID = " + id);
+        log.info("deleteCustomer started. Customer ID = {0}", id);
         Response.ResponseBuilder builder = null;
 
        // try {
@@ -263,7 +398,7 @@ public class CustomerRESTService {
             //log.info("deleteCustomer completed. Customer = " + customer.getFirstName() + " " + customer.getLastName() + " " + customer.getEmail() + " " + customer.getPhoneNumber() + " "
             //    +  customer.getId());
        // } catch (Exception e) {
-         //   log.info("Exception - " + e.toString());
+         //   log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", "a");
@@ -281,7 +416,7 @@ public class CustomerRESTService {
      * @return A Bad Request (400) Response containing all violation messages
      */
     private Response.ResponseBuilder createViolationResponse(Set<ConstraintViolation<?>> violations) {
-        log.fine("Validation completed. violations found: " + violations.size());
+        log.fine("Validation completed. violations found: {0}", violations.size());
 
         Map<String, String> responseObj = new HashMap<String, String>();
 
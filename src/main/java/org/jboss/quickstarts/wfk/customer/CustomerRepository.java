@@ -19,15 +19,20 @@ package org.jboss.quickstarts.wfk.customer;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Set;
+
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link CustomerService} with the
@@ -43,10 +48,16 @@ import java.util.logging.Logger;
 public class CustomerRepository {
 
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
 
     @Inject
     private EntityManager em;
+
+    @Inject
+    private CustomerEmailIndex emails;
+
+    @Inject
+    private CustomerNameIndex names;
     
     /**
      * <p>Returns a List of all persisted {@link Customer} objects, sorted alphabetically by last name.</p>
@@ -58,6 +69,71 @@ public class CustomerRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns the number of Customers, and the sums of their ids and of their versions, which together change whenever a
+     * Customer is created, updated or deleted.</p>
+     *
+     * @return The count, the sum of the ids and the sum of the versions, the sums being null if there are no Customers
+     */
+    Object[] findAllVersion() {
+        return em.createNamedQuery(Customer.FIND_ALL_VERSION, Object[].class).getSingleResult();
+    }
+
+    /**
+     * <p>Returns the next chunk of {@link Customer} objects, sorted by id, for streaming the whole table.</p>
+     *
+     * <p>The persistence context is cleared first, so the Customers of the previous chunk can be garbage collected and
+     * memory use stays bounded by the chunk size.</p>
+     *
+     * @param afterId The id of the last Customer of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Customers to return
+     * @return List of Customer objects
+     */
+    List<Customer> findChunk(long afterId, int size) {
+        em.clear();
+        TypedQuery<Customer> query = em.createNamedQuery(Customer.FIND_PAGE, Customer.class)
+            .setParameter("afterId", afterId)
+            .setMaxResults(size);
+        return query.getResultList();
+    }
+
+    /**
+     * <p>Returns which of the given ids belong to a persisted {@link Customer}, with a single query.</p>
+     *
+     * @param ids The ids to look for
+     * @return The ids of the Customers that exist
+     */
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashSet<Long>();
+        }
+        TypedQuery<Long> query = em.createNamedQuery(Customer.FIND_IDS, Long.class).setParameter("ids", ids);
+        return new HashSet<Long>(query.getResultList());
+    }
+
+    /**
+     * <p>Returns which of the given email addresss are already used by a persisted {@link Customer}, with a single query.</p>
+     *
+     * <p>Only the addresses that the {@link CustomerEmailIndex} cannot rule out are looked up, so a chunk of new
+     * Customers usually needs no query at all.</p>
+     *
+     * @param candidates The email addresss to look for
+     * @return The email addresss that are taken
+     */
+    Set<String> findExistingEmails(Collection<String> candidates) {
+        List<String> lookups = new ArrayList<String>();
+        for (String email : candidates) {
+            if (emails.mightBeTaken(email)) {
+                lookups.add(email);
+            }
+        }
+        if (lookups.isEmpty()) {
+            return new HashSet<String>();
+        }
+        TypedQuery<String> query = em.createNamedQuery(Customer.FIND_EMAILS, String.class).setParameter("emails", lookups);
+        return new HashSet<String>(query.getResultList());
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      *
@@ -81,6 +157,18 @@ public class CustomerRepository {
         return query.getSingleResult();
     }
 
+    /**
+     * <p>Returns the id and full name of the Customers with a first, last or full name starting with the prefix, from
+     * the {@link CustomerNameIndex} rather than the database.</p>
+     *
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Customers to return
+     * @return The matching Customers, in alphabetical order of the name that matched
+     */
+    List<PrefixIndex.Match> suggestByName(String prefix, int limit) {
+        return names.suggest(prefix, limit);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a String firstName.<p/>
      *
@@ -90,13 +178,9 @@ public class CustomerRepository {
      * @return The first Customer with the specified firstName
      */
     Customer findByFirstName(String firstName) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Customer> criteria = cb.createQuery(Customer.class);
-        Root<Customer> customer = criteria.from(Customer.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(customer).where(cb.equal(customer.get(Customer_.firstName), firstName));
-        criteria.select(customer).where(cb.equal(customer.get("firstName"), firstName));
-        return em.createQuery(criteria).getSingleResult();
+        TypedQuery<Customer> query = em.createNamedQuery(Customer.FIND_BY_FIRST_NAME, Customer.class)
+            .setParameter("firstName", firstName);
+        return query.setMaxResults(1).getSingleResult();
     }
 
     /**
@@ -108,13 +192,9 @@ public class CustomerRepository {
      * @return The first Customer with the specified lastName
      */
     Customer findByLastName(String lastName) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Customer> criteria = cb.createQuery(Customer.class);
-        Root<Customer> customer = criteria.from(Customer.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(customer).where(cb.equal(customer.get(Customer_.lastName), lastName));
-        criteria.select(customer).where(cb.equal(customer.get("lastName"), lastName));
-        return em.createQuery(criteria).getSingleResult();
+        TypedQuery<Customer> query = em.createNamedQuery(Customer.FIND_BY_LAST_NAME, Customer.class)
+            .setParameter("lastName", lastName);
+        return query.setMaxResults(1).getSingleResult();
     }
 
     /**
@@ -130,14 +210,37 @@ public class CustomerRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer create(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("CustomerRepository.create() - Creating " + customer.getFirstName() + " " + customer.getLastName());
+        log.fine("CustomerRepository.create() - Creating {0}", customer);
         
         // Write the customer to the database.
         em.persist(customer);
+        flush();
+        
+        // Let the email index know that the address is now taken, and make the customer searchable by name.
+        emails.add(customer.getEmail());
+        names.put(customer);
         
         return customer;
     }
 
+    /**
+     * <p>Persists a chunk of new Customer objects of a bulk import with a single flush, so that Hibernate can send the
+     * inserts in JDBC batches, then clears the persistence context so that the next chunk starts empty.</p>
+     *
+     * @param customers The Customer objects to be persisted
+     */
+    void createAll(List<Customer> customers) {
+        for (Customer customer : customers) {
+            em.persist(customer);
+        }
+        em.flush();
+        em.clear();
+        for (Customer customer : customers) {
+            emails.add(customer.getEmail());
+            names.put(customer);
+        }
+    }
+
     /**
      * <p>Updates an existing Customer object in the application database with the provided Customer object.</p>
      * 
@@ -152,14 +255,43 @@ public class CustomerRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer update(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("CustomerRepository.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
+        log.fine("CustomerRepository.update() - Updating {0}", customer);
         
+        // The version is not sent by clients, so carry on from the stored one: this is what merge compares it to.
+        Customer stored = em.find(Customer.class, customer.getId());
+        if (stored != null) {
+            customer.setVersion(stored.getVersion());
+        }
+
         // Either update the customer or add it if it can't be found.
         em.merge(customer);
+        flush();
+        
+        // The address may have changed. The old one stays in the email index, which only costs a query if it is reused.
+        emails.add(customer.getEmail());
+        names.put(customer);
         
         return customer;
     }
 
+    /**
+     * <p>Writes pending changes to the database straight away, so that a clash with the unique constraint on the email
+     * column, by a Customer registered concurrently, is reported here as a taken address instead of failing the whole
+     * transaction at commit time.</p>
+     *
+     * @throws ValidationException If the email address is already used
+     */
+    private void flush() throws ValidationException {
+        try {
+            em.flush();
+        } catch (PersistenceException e) {
+            if (PersistenceErrors.isUniqueViolation(e)) {
+                throw new ValidationException("Unique Email Violation");
+            }
+            throw e;
+        }
+    }
+
     /**
      * <p>Deletes the provided Customer object from the application database if found there</p>
      *
@@ -168,7 +300,7 @@ public class CustomerRepository {
      * @throws Exception
      */
     Customer delete(Customer customer) throws Exception {
-        log.info("CustomerRepository.delete() - Deleting " + customer.getFirstName() + " " + customer.getLastName());
+        log.fine("CustomerRepository.delete() - Deleting {0}", customer);
         
         if (customer.getId() != null) {
             /*
@@ -187,7 +319,7 @@ public class CustomerRepository {
            // em.remove(em.merge(customer));
             
         } else {
-            log.info("CustomerRepository.delete() - No ID was found so can't Delete.");
+            log.fine("CustomerRepository.delete() - No ID was found so can't Delete.");
         }
         
         return customer;
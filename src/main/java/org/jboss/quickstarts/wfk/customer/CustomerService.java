@@ -26,17 +26,26 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.quickstarts.wfk.util.BulkImport;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.NewTransaction;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
-import java.util.logging.Logger;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -57,7 +66,7 @@ import java.util.logging.Logger;
 public class CustomerService {
 
     @Inject  //create logger instance??
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
 
     @Inject
     private CustomerValidator validator;
@@ -67,6 +76,9 @@ public class CustomerService {
 
     @Inject
     private @Named("httpClient") CloseableHttpClient httpClient;
+
+    @Inject
+    private NewTransaction transactions;
     
     /**
      * <p>Returns a List of all persisted {@link Customer} objects, sorted alphabetically by last name.<p/>
@@ -77,6 +89,27 @@ public class CustomerService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns the number of Customers and the sums of their ids and versions, which identify the current state of the
+     * list for HTTP caching.<p/>
+     *
+     * @return The count, the sum of the ids and the sum of the versions
+     */
+    Object[] findAllVersion() {
+        return crud.findAllVersion();
+    }
+
+    /**
+     * <p>Returns the next chunk of {@link Customer} objects, sorted by id, for streaming the whole table.<p/>
+     *
+     * @param afterId The id of the last Customer of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Customers to return
+     * @return List of Customer objects
+     */
+    List<Customer> findChunk(long afterId, int size) {
+        return crud.findChunk(afterId, size);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      * 
@@ -99,6 +132,18 @@ public class CustomerService {
         return crud.findByEmail(email);
     }
 
+    /**
+     * <p>Returns the id and full name of the Customers with a name starting with what the user has typed, for
+     * type-ahead search.<p/>
+     *
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Customers to return
+     * @return The matching Customers, in alphabetical order of the name that matched
+     */
+    List<PrefixIndex.Match> suggestByName(String prefix, int limit) {
+        return crud.suggestByName(prefix, limit);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a String firstName.<p/>
      *
@@ -120,9 +165,50 @@ public class CustomerService {
      * @return The first Customer with the specified lastName
      */
     Customer findByLastName(String lastName) {
-        return crud.findByFirstName(lastName);
+        return crud.findByLastName(lastName);
     }
 
+    /**
+     * <p>Imports new Customer objects from the records of a CSV or NDJSON upload, a chunk at a time.<p/>
+     *
+     * <p>Records that are not valid, or whose email is already used, are rejected and the import carries on.<p/>
+     *
+     * @param records The records to import
+     * @param mapper The ObjectMapper used to convert each record to a Customer
+     * @return The outcome of the import
+     */
+    ImportSummary importCustomers(RecordReader records, ObjectMapper mapper) {
+        return new BulkImport<Customer>(Customer.class, mapper, transactions, log) {
+            @Override
+            protected String keyField() {
+                return "email";
+            }
+
+            @Override
+            protected String keyOf(Customer customer) {
+                return customer.getEmail();
+            }
+
+            @Override
+            protected Set<String> existingKeys(Collection<String> keys) {
+                return crud.findExistingEmails(keys);
+            }
+
+            @Override
+            protected Set<ConstraintViolation<Customer>> validate(Customer customer) {
+                // Ids are always generated, and the state is set as in create()
+                customer.setId(null);
+                customer.setState("unknown");
+                return validator.validateFields(customer);
+            }
+
+            @Override
+            protected void write(List<Customer> customers) {
+                crud.createAll(customers);
+            }
+        }.run(records);
+    }
+    
     /**
      * <p>Writes the provided Customer object to the application database.<p/>
      *
@@ -133,7 +219,7 @@ public class CustomerService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer create(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("CustomerService.create() - Creating " + customer.getFirstName() + " " + customer.getLastName());
+        log.info("CustomerService.create() - Creating {0}", customer);
         
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
         validator.validateCustomer(customer);
@@ -171,7 +257,7 @@ public class CustomerService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer update(Customer customer) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("CustomerService.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
+        log.info("CustomerService.update() - Updating {0}", customer);
         
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
         validator.validateCustomer(customer);
@@ -205,7 +291,7 @@ public class CustomerService {
      * @throws Exception
      */
     Customer delete(Customer customer) throws Exception {
-        log.info("CustomerService.delete() - Deleting " + customer.getFirstName() + " " + customer.getLastName());
+        log.info("CustomerService.delete() - Deleting {0}", customer);
         
         Customer deletedCustomer = null;
         
@@ -20,7 +20,6 @@ import java.util.HashSet;
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -31,7 +30,7 @@ import javax.validation.Validator;
  * 
  * @author Joshua Wilson
  * @see Customer
- * @see CustomerRepository
+ * @see CustomerEmailIndex
  * @see javax.validation.Validator
  */
 public class CustomerValidator {
@@ -39,7 +38,7 @@ public class CustomerValidator {
     private Validator validator;
 
     @Inject
-    private CustomerRepository crud;
+    private CustomerEmailIndex emails;
 
     /**
      * <p>Validates the given Customer object and throws validation exceptions based on the type of error. If the error is standard
@@ -68,6 +67,17 @@ public class CustomerValidator {
         }
     }
 
+    /**
+     * <p>Checks the given Customer against its bean validation rules only, for a bulk import which checks the uniqueness
+     * of a whole chunk of Customers at once.</p>
+     *
+     * @param customer The Customer object to be validated
+     * @return The violated constraints, empty if there are none
+     */
+    Set<ConstraintViolation<Customer>> validateFields(Customer customer) {
+        return validator.validate(customer);
+    }
+
     /**
      * <p>Checks if a customer with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Customer class.</p>
@@ -75,29 +85,14 @@ public class CustomerValidator {
      * <p>Since Update will being using an email that is already in the database we need to make sure that it is the email
      * from the record being updated.</p>
      * 
+     * <p>The {@link CustomerEmailIndex} answers for an address nobody uses without a query, and otherwise compares the
+     * ids of the Customers using it, so the Customer being updated is never loaded.</p>
+     * 
      * @param email The email to check is unique
      * @param id The user id to check the email against if it was found
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
-        Customer customer = null;
-        Customer customerWithID = null;
-        try {
-            customer = crud.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (customer != null && id != null) {
-            try {
-                customerWithID = crud.findById(id);
-                if (customerWithID != null && customerWithID.getEmail().equals(email)) {
-                    customer = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return customer != null;
+        return emails.isTaken(email, id);
     }
 }
@@ -18,6 +18,7 @@ package org.jboss.quickstarts.wfk.hotel;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.Locale;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -26,7 +27,9 @@ import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.hibernate.annotations.Index;
 import org.hibernate.validator.constraints.Email;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -42,12 +45,41 @@ import org.hibernate.validator.constraints.NotEmpty;
 /*
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error prone due to the syntax being in a String.  This makes it harder to debug.
+ *
+ * FIND_AVAILABLE is an anti-join, answered by the database in one statement. The stays of a Hotel never overlap, so
+ * the only ones that can fall on the range are those checking in on one of its days and the last one checking in
+ * before it. The NOT EXISTS probes in FREE look for them on the (hotelId, booking_date) unique index of Booking: a
+ * range seek bounded by the first and last day, and a MAX(bookingDate) subquery, which is a backward seek to a single
+ * row. Neither reads the Hotel's past bookings, so an available Hotel costs as little to find as a booked one.
+ *
+ * FIND_BY_POSTCODE_PREFIX is the area search. Postcodes are stored in upper case, so a prefix such as the outward code
+ * "DG4" is a LIKE 'DG4%' that the database answers with a range scan on the IDX_HOTEL_POSTCODE index rather than by
+ * reading the whole table.
  */
 @Entity //store in database
+/*
+ * Hotels are read on every booking and rarely change, so they are kept in the second-level cache (see persistence.xml).
+ * Hibernate updates the cached entry when a Hotel is created, updated or deleted through the EntityManager.
+ */
+@Cacheable
 @NamedQueries({
-    @NamedQuery(name = Hotel.FIND_ALL, query = "SELECT h FROM Hotel h ORDER BY h.name ASC"),
+    @NamedQuery(name = Hotel.FIND_ALL, query = "SELECT h FROM Hotel h ORDER BY h.name ASC",
+        hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
+    @NamedQuery(name = Hotel.FIND_ALL_VERSION, query = "SELECT COUNT(h), SUM(h.id), SUM(h.version) FROM Hotel h"),
+    @NamedQuery(name = Hotel.FIND_NAMES, query = "SELECT h.id, h.name FROM Hotel h"),
+    @NamedQuery(name = Hotel.FIND_PAGE, query = "SELECT h FROM Hotel h WHERE h.id > :afterId ORDER BY h.id ASC"),
+    @NamedQuery(name = Hotel.FIND_BY_NAME, query = "SELECT h FROM Hotel h WHERE h.name = :name ORDER BY h.id ASC"),
     @NamedQuery(name = Hotel.FIND_BY_PHONENUMBER, query = "SELECT h FROM Hotel h WHERE h.phoneNumber = :phoneNumber"),
-    @NamedQuery(name = Hotel.FIND_BY_POSTCODE,query = "SELECT h FROM Hotel h WHERE h.postcode = :postcode")
+    @NamedQuery(name = Hotel.FIND_IDS_BY_PHONENUMBER, query = "SELECT h.id FROM Hotel h WHERE h.phoneNumber = :phoneNumber"),
+    @NamedQuery(name = Hotel.FIND_IDS, query = "SELECT h.id FROM Hotel h WHERE h.id IN :ids"),
+    @NamedQuery(name = Hotel.FIND_PHONE_NUMBERS, query = "SELECT h.phoneNumber FROM Hotel h WHERE h.phoneNumber IN :phoneNumbers"),
+    @NamedQuery(name = Hotel.FIND_BY_POSTCODE,query = "SELECT h FROM Hotel h WHERE h.postcode = :postcode ORDER BY h.id ASC"),
+    @NamedQuery(name = Hotel.FIND_BY_POSTCODE_PREFIX, query = "SELECT h FROM Hotel h WHERE h.postcode LIKE :prefix "
+        + "AND h.id > :afterId ORDER BY h.id ASC", hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
+    @NamedQuery(name = Hotel.FIND_AVAILABLE, query = "SELECT h FROM Hotel h WHERE h.id > :afterId "
+        + Hotel.FREE + "ORDER BY h.id ASC"),
+    @NamedQuery(name = Hotel.FIND_AVAILABLE_BY_POSTCODE, query = "SELECT h FROM Hotel h WHERE h.postcode = :postcode "
+        + "AND h.id > :afterId " + Hotel.FREE + "ORDER BY h.id ASC")
 })
 @XmlRootElement
 @Table(name = "Hotel",uniqueConstraints = @UniqueConstraint(columnNames = "phone_number")) //table name
@@ -57,8 +89,25 @@ public class Hotel implements Serializable {
     private static final long serialVersionUID = 1L;
     
     public static final String FIND_ALL = "Hotel.findAll";
+    public static final String FIND_ALL_VERSION = "Hotel.findAllVersion";
+    public static final String FIND_NAMES = "Hotel.findNames";
+    public static final String FIND_PAGE = "Hotel.findPage";
+    public static final String FIND_BY_NAME = "Hotel.findByName";
     public static final String FIND_BY_PHONENUMBER = "Hotel.findByPhoneNumber";
+    public static final String FIND_IDS_BY_PHONENUMBER = "Hotel.findIdsByPhoneNumber";
+    public static final String FIND_IDS = "Hotel.findIds";
+    public static final String FIND_PHONE_NUMBERS = "Hotel.findPhoneNumbers";
     public static final String FIND_BY_POSTCODE = "Hotel.findByPostcode";
+    public static final String FIND_BY_POSTCODE_PREFIX = "Hotel.findByPostcodePrefix";
+    public static final String FIND_AVAILABLE = "Hotel.findAvailable";
+    public static final String FIND_AVAILABLE_BY_POSTCODE = "Hotel.findAvailableByPostcode";
+
+    // The probes of FIND_AVAILABLE and FIND_AVAILABLE_BY_POSTCODE: no stay checks in from :from to :to, and the last one
+    // checking in before :from has checked out by then
+    static final String FREE = "AND NOT EXISTS (SELECT b.id FROM Booking b WHERE b.hotel = h "
+        + "AND b.bookingDate BETWEEN :from AND :to) "
+        + "AND NOT EXISTS (SELECT b.id FROM Booking b WHERE b.hotel = h AND b.checkOutDate > :from "
+        + "AND b.bookingDate = (SELECT MAX(p.bookingDate) FROM Booking p WHERE p.hotel = h AND p.bookingDate < :from)) ";
 
     /*
      * The  error messages match the ones in the UI so that the user isn't confused by two similar error messages for
@@ -70,7 +119,9 @@ public class Hotel implements Serializable {
      * variable occurs it can be sent to the correct input field on the form.  
      */
     @Id //id field 
-    @GeneratedValue(strategy = GenerationType.TABLE)
+    // Pooled sequence of its own, starting above the ids seeded by import.sql
+    @SequenceGenerator(name = "Hotel_SEQ", sequenceName = "Hotel_SEQ", initialValue = 20000, allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "Hotel_SEQ")
     private Long id;
 
     @NotNull
@@ -89,7 +140,16 @@ public class Hotel implements Serializable {
     @NotNull
     @Size(min = 6,max = 6)
     @Column(name="postcode")
+    @Index(name = "IDX_HOTEL_POSTCODE")
     private String postcode;
+
+    /*
+     * Incremented by every update, it identifies the representation of the Hotel for HTTP caching (see EntityTags). It
+     * is not part of the JSON: an update takes the version of the stored Hotel, see HotelRepository.update().
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
     
     public Long getId() {
         return id;
@@ -115,9 +175,33 @@ public class Hotel implements Serializable {
     }
 
    public void setPostcode(String postcode){
-	   this.postcode = postcode;
+	   this.postcode = normalisePostcode(postcode);
    }
    public String getPostcode(){
 	   return postcode;
    }
+
+    /**
+     * <p>Puts a postcode, or the start of one, in the form it is stored in: upper case, without surrounding blanks.</p>
+     *
+     * @param postcode The postcode as entered, or null
+     * @return The postcode as stored, or null
+     */
+    public static String normalisePostcode(String postcode) {
+        return postcode == null ? null : postcode.trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "Hotel[id=" + id + ", name=" + name + ", postcode=" + postcode + ", phoneNumber=" + phoneNumber + "]";
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.hotel;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+
+/**
+ * <p>The names of the {@link Hotel}s, in a {@link PrefixIndex} for the type-ahead search of the hotel list.</p>
+ *
+ * <p>The index is loaded the first time it is searched, using a projection query that only returns the id and name of
+ * each Hotel. {@link HotelRepository} puts every Hotel it writes into it, before the first search as well, so that a
+ * Hotel created while the index is loading is not missed; the load leaves those Hotels alone, as their names are newer
+ * than the ones it read. A Hotel is put before the transaction writing it commits, and is put back as it was if the
+ * transaction rolls back.</p>
+ */
+@ApplicationScoped
+public class HotelNameIndex {
+
+    @Inject
+    private EntityManager em;
+
+    @Inject
+    private TransactionSynchronizationRegistry transactions;
+
+    private final PrefixIndex names = new PrefixIndex();
+
+    private volatile boolean loaded;
+
+    /**
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Hotels to return
+     * @return The id and name of the Hotels whose name starts with the prefix, in alphabetical order
+     */
+    List<PrefixIndex.Match> suggest(String prefix, int limit) {
+        if (!loaded) {
+            load();
+        }
+        return names.find(prefix, limit);
+    }
+
+    /**
+     * <p>Indexes the (persisted) Hotel under its current name.</p>
+     *
+     * @param hotel The Hotel that has been written to the database
+     */
+    void put(Hotel hotel) {
+        if (hotel.getId() != null) {
+            boolean wasLoaded = loaded;
+            revertOnRollback(wasLoaded, names.put(hotel.getId(), hotel.getName(), hotel.getName()));
+        }
+    }
+
+    /*
+     * A change made before the index was loaded kept load() from reading the Hotel's committed name, so reverting it
+     * leaves the Hotel out until the index is loaded again.
+     */
+    private void revertOnRollback(boolean wasLoaded, final PrefixIndex.Change change) {
+        final boolean reload = !wasLoaded;
+        TransactionUndo.onRollback(transactions, new Runnable() {
+            @Override
+            public void run() {
+                revert(change, reload);
+            }
+        });
+    }
+
+    // Synchronized with load(), so that a load in progress cannot mark the index loaded after this
+    private synchronized void revert(PrefixIndex.Change change, boolean reload) {
+        if (names.revert(change) && reload) {
+            loaded = false;
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        List<Object[]> rows = em.createNamedQuery(Hotel.FIND_NAMES, Object[].class).getResultList();
+        // A Hotel that has been put already has a newer name than its row
+        for (Object[] row : rows) {
+            names.putIfAbsent((Long) row[0], (String) row[1], (String) row[1]);
+        }
+        loaded = true;
+    }
+}
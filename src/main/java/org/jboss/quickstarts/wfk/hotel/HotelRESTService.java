@@ -16,17 +16,27 @@
  */
 package org.jboss.quickstarts.wfk.hotel;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Logger;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
+import javax.annotation.Resource;
 import javax.ejb.NoSuchEntityException;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.interceptor.ExcludeClassInterceptors;
+import javax.interceptor.Interceptors;
+import javax.persistence.EntityNotFoundException;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -38,9 +48,31 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Providers;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 
 /**
  * <p>This class exposes the functionality of {@link HotelService} over HTTP endpoints as a RESTful resource via
@@ -68,42 +100,184 @@ import javax.ws.rs.WebApplicationException;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 @Stateless
+@Interceptors(RequestMetricsInterceptor.class)
 public class HotelRESTService {
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
+    
+    /** The longest range of days, counting both ends, that can be searched for available Hotels. */
+    static final int MAX_AVAILABILITY_DAYS = 366;
+
+    /** The start of a postcode that can be searched for: letters and digits only, so it never holds a LIKE wildcard. */
+    private static final Pattern POSTCODE_PREFIX = Pattern.compile("[A-Z0-9]{1,6}");
     
     @Inject
     private HotelService service;
     
+    @Inject
+    private AsyncDispatcher dispatcher;
+    
+    @Resource
+    private SessionContext context;
+    
     /**
      * <p>Search for and return all the Hotels.  They are sorted alphabetically by name.</p>
+     *
+     * <p>The list is tagged with an ETag. A client that sends it back in <i>If-None-Match</i> gets a 304 (Not Modified)
+     * if no Hotel has changed since, without the list being read.</p>
      * 
+     * @param request The request, whose preconditions are evaluated against the tag of the list
      * @return A Response containing a list of Hotels
      */
     @GET
-    public Response retrieveAllHotels() {
+    public Response retrieveAllHotels(@Context Request request) {
+        // Tag before reading, so a change in between leaves the client with an outdated tag rather than outdated data
+        EntityTag tag = EntityTags.ofAll(service.findAllVersion());
+        Response notModified = EntityTags.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
         List<Hotel> hotels = service.findAllOrderedByName();
-        return Response.ok(hotels).build();
+        return EntityTags.ok(hotels, tag);
+    }
+
+    /**
+     * <p>Stream all the Hotels, sorted by id, as a single JSON array.</p>
+     *
+     * <p>Unlike {@link #retrieveAllHotels(Request)} the list is never held in memory: the Hotels are read and written a
+     * chunk at a time, so this is the endpoint to use for exporting a large table.</p>
+     *
+     * @param providers The JAX-RS providers, used to serialise the Hotels with the application's ObjectMapper
+     * @return A Response streaming a list of Hotels
+     */
+    @GET
+    @Path("/export")
+    public Response exportHotels(@Context Providers providers) {
+        final HotelService hotelService = service;
+        return Response.ok(new JsonArrayStreamingOutput<Hotel>(providers) {
+            @Override
+            protected List<Hotel> nextChunk(long afterId, int size) {
+                return hotelService.findChunk(afterId, size);
+            }
+
+            @Override
+            protected long idOf(Hotel hotel) {
+                return hotel.getId();
+            }
+        }).build();
+    }
+    
+    /**
+     * <p>Search for and return a page of the Hotels, sorted by id, whose postcode starts with <i>postcodePrefix</i>,
+     * such as an outward code ("DG4") or just its area letters ("DG"). Case does not matter.</p>
+     * 
+     * <p>When the page is full a <i>Link</i> header points to the next one.</p>
+     * 
+     * @param postcodePrefix The start of the postcode, 1 to 6 letters and digits
+     * @param afterId The id of the last Hotel of the previous page, or null for the first page
+     * @param limit The maximum number of Hotels to return, or null for the default page size
+     * @param uriInfo The URI of the request, used to build the link to the next page
+     * @return A Response containing a list of Hotels, empty if there are none in that area
+     */
+    @GET
+    @Path("/search")
+    public Response searchHotels(@QueryParam("postcodePrefix") String postcodePrefix, @QueryParam("afterId") Long afterId,
+                                 @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+        String prefix = Hotel.normalisePostcode(postcodePrefix);
+        if (prefix == null || !POSTCODE_PREFIX.matcher(prefix).matches()) {
+            throw Paging.badRequest("postcodePrefix", "The start of a postcode, 1 to 6 letters and digits, is required");
+        }
+        
+        int pageSize = Paging.limit(limit);
+        List<Hotel> hotels = service.findByPostcodePrefix(prefix, Paging.afterId(afterId), pageSize);
+        
+        Response.ResponseBuilder builder = Response.ok(hotels);
+        if (hotels.size() == pageSize) {
+            builder.header("Link", Paging.nextLink(uriInfo, hotels.get(hotels.size() - 1).getId()));
+        }
+        return builder.build();
+    }
+    
+    /**
+     * <p>Search for the Hotels whose name starts with <i>prefix</i>, to suggest them as the user types. Case does not
+     * matter.</p>
+     * 
+     * <p>The names are held in memory by {@link HotelNameIndex}, so the database is not queried.</p>
+     * 
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Hotels to return, or null for {@link PrefixIndex#DEFAULT_LIMIT}
+     * @return A Response containing the id and name of each matching Hotel
+     */
+    @GET
+    @Path("/suggest")
+    public Response suggestHotels(@QueryParam("prefix") String prefix, @QueryParam("limit") Integer limit) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            throw Paging.badRequest("prefix", "The start of a name is required");
+        }
+        int size = limit == null ? PrefixIndex.DEFAULT_LIMIT : Paging.limit(limit);
+        return Response.ok(service.suggestByName(prefix, size)).build();
+    }
+    
+    /**
+     * <p>Search for and return a page of the Hotels, sorted by id, that are free on every day from <i>from</i> to
+     * <i>to</i> (yyyy-MM-dd, both inclusive), optionally in a single postcode.</p>
+     * 
+     * <p>The range can span at most {@link #MAX_AVAILABILITY_DAYS} days. When the page is full a <i>Link</i> header
+     * points to the next one.</p>
+     * 
+     * @param from The first day the Hotels must be free on
+     * @param to The last day the Hotels must be free on, or null for the single day <i>from</i>
+     * @param postcode Only return Hotels with this postcode, or null for any postcode
+     * @param afterId The id of the last Hotel of the previous page, or null for the first page
+     * @param limit The maximum number of Hotels to return, or null for the default page size
+     * @param uriInfo The URI of the request, used to build the link to the next page
+     * @return A Response containing a list of Hotels, empty if none is free
+     */
+    @GET
+    @Path("/available")
+    public Response retrieveAvailableHotels(@QueryParam("from") String from, @QueryParam("to") String to,
+                                            @QueryParam("postcode") String postcode, @QueryParam("afterId") Long afterId,
+                                            @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
+        if (from == null) {
+            throw Paging.badRequest("from", "The first day of the stay is required");
+        }
+        DateRange range = DateRange.of(from, to == null ? from : to);
+        if (range.getDays() > MAX_AVAILABILITY_DAYS) {
+            throw Paging.badRequest("to", "The range can span at most " + MAX_AVAILABILITY_DAYS + " days");
+        }
+        String code = postcode == null || postcode.trim().isEmpty() ? null : Hotel.normalisePostcode(postcode);
+        
+        int pageSize = Paging.limit(limit);
+        List<Hotel> hotels = service.findAvailable(range, code, Paging.afterId(afterId), pageSize);
+        
+        Response.ResponseBuilder builder = Response.ok(hotels);
+        if (hotels.size() == pageSize) {
+            builder.header("Link", Paging.nextLink(uriInfo, hotels.get(hotels.size() - 1).getId()));
+        }
+        return builder.build();
     }
     
     /**
      * <p>Search for and return a Hotel identified by id.</p>
      * 
      * @param id The long parameter value provided as a Hotel's id
-     * @return A Response containing a single Hotel
+     * @param request The request, whose preconditions are evaluated against the tag of the Hotel
+     * @return A Response containing a single Hotel, or a 304 (Not Modified) if the client's copy, given by its ETag, is
+     *         current
      */
   
     @GET
     @Path("/{id:[0-9]+}")
-    public Response retrieveHotelById(@PathParam("id") long id) {
+    public Response retrieveHotelById(@PathParam("id") long id, @Context Request request) {
         Hotel hotel = service.findById(id);
         if (hotel == null) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
-        log.info("findById " + id + ": found Hotel = " + hotel.getName() +" " +hotel.getPostcode()+" "+hotel.getPhoneNumber() + " "
-                + " " + hotel.getId());
-        
-        return Response.ok(hotel).build();
+        log.fine("findById: found {0}", hotel);
+
+        EntityTag tag = EntityTags.of(hotel.getId(), hotel.getVersion());
+        Response notModified = EntityTags.notModified(request, tag);
+        return notModified != null ? notModified : EntityTags.ok(hotel, tag);
     }
     @GET
     @Path("/{phoneNumber:[0-9]+}")
@@ -122,6 +296,29 @@ public class HotelRESTService {
     
    
 
+    /**
+     * <p>Imports hotels in bulk from a CSV file, whose header line names the fields, or from NDJSON with one hotel
+     * object per line. Returns a 200 (ok) with a summary of how many records were imported and why any were rejected.</p>
+     *
+     * <p>The upload is read as a stream and written a chunk at a time, so it is not held in memory. The request does not
+     * run in a transaction: each chunk is committed as soon as it is written. If the upload cannot be read to the end,
+     * the import stops there and the summary says it is not complete.</p>
+     *
+     * @param body The uploaded records
+     * @param headers The request headers, giving the format of the upload
+     * @param providers The JAX-RS providers, used to find the application's ObjectMapper
+     * @return A Response holding the {@link ImportSummary}
+     */
+    @POST
+    @Path("/import")
+    @Consumes({RecordReader.TEXT_CSV, RecordReader.APPLICATION_NDJSON})
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Response importHotels(InputStream body, @Context HttpHeaders headers, @Context Providers providers) {
+        ObjectMapper mapper = JacksonConfig.objectMapper(providers);
+        ImportSummary summary = service.importHotels(new RecordReader(body, headers.getMediaType(), mapper), mapper);
+        return Response.ok(summary).build();
+    }
+
     /**
      * <p>Creates a new hotel from the values provided. Performs validation and will return a JAX-RS response with either 200 (ok)
      * or with a map of fields, and related errors.</p>
@@ -132,10 +329,10 @@ public class HotelRESTService {
     @SuppressWarnings("unused")
     @POST
     public Response createHotel(Hotel hotel) {
-        log.info("createHotel started. Hotel = " + hotel.getName() +" " + hotel.getPhoneNumber() + " "+ hotel.getPostcode()+" "+hotel.getId());
         if (hotel == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+        log.info("createHotel started. {0}", hotel);
         
         Response.ResponseBuilder builder = null;
 
@@ -146,19 +343,19 @@ public class HotelRESTService {
             // Create a "Resource Created" 201 Response and pass the hotel back in case it is needed.
             builder = Response.status(Response.Status.CREATED).entity(hotel);
             
-            log.info("createHotel completed. Hotel = " + hotel.getName() +" " + " " + hotel.getPhoneNumber()+ " " +hotel.getPostcode()+" "+ hotel.getId());
+            log.info("createHotel completed. {0}", hotel);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
+            log.info("ValidationException - {0}", e);
             // Handle the unique constrain violation
             Map<String, String> responseObj = new HashMap<String, String>();
            responseObj.put("phoneNumber", "That phoneNumber is already used, please use a unique phone number");
             builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -168,49 +365,79 @@ public class HotelRESTService {
         return builder.build();
     }
 
+    /**
+     * <p>Creates a new hotel like {@link #createHotel(Hotel)}, without holding an HTTP worker thread while it is validated
+     * and written. The request is suspended, and resumed by the {@link AsyncDispatcher} with the same response, or
+     * with a 503 (Service Unavailable) if too many asynchronous requests are already waiting.</p>
+     *
+     * @param hotel The Hotel object, constructed automatically from JSON input, to be <i>created</i>
+     * @param response The suspended request, resumed with the outcome of the create operation
+     */
+    @POST
+    @Path("/async")
+    @ExcludeClassInterceptors
+    public void createHotelAsync(final Hotel hotel,
+                                 @Suspend(AsyncDispatcher.TIMEOUT_MILLIS) AsynchronousResponse response) {
+        // Call through the EJB view, so that the hotel is created in a transaction of its own on the dispatcher thread
+        final HotelRESTService self = context.getBusinessObject(HotelRESTService.class);
+        dispatcher.dispatch(response, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return self.createHotel(hotel);
+            }
+        });
+    }
+
     /**
      * <p>Updates a hotel with the ID provided in the Hotel. Performs validation, and will return a JAX-RS response with either 200 ok,
      * or with a map of fields, and related errors.</p>
      * 
-     * @param hotel The Hotel object, constructed automatically from JSON input, to be <i>updated</i> via {@link HotelService#update(Hotel)}
+     * <p>An <i>If-Match</i> header with the ETag of a previous read makes the update conditional: it fails with a 412
+     * (Precondition Failed) if the Hotel has been changed since. A successful update returns the new ETag.</p>
+     * 
+     * @param hotel The Hotel object, constructed automatically from JSON input, to be <i>updated</i> via {@link HotelService#update(Hotel, Long)}
      * @param id The long parameter value provided as the id of the Hotel to be updated
+     * @param headers The headers of the request, which may hold an If-Match header
      * @return A Response indicating the outcome of the create operation
      */
     @PUT
     @Path("/{id:[0-9][0-9]*}")
-    public Response updateHotel(@PathParam("id") long id, Hotel hotel) {
+    public Response updateHotel(@PathParam("id") long id, Hotel hotel, @Context HttpHeaders headers) {
         if (hotel == null) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
-        log.info("updateHotel started. Hotel = " + hotel.getName() + " " + hotel.getPhoneNumber() + " "+ hotel.getPostcode()+" "+hotel.getId());
+        log.info("updateHotel started. {0}", hotel);
 
         if (hotel.getId() != id) {
             // The client attempted to update the read-only Id. This is not permitted.
             Response response = Response.status(Response.Status.CONFLICT).entity("The hotel ID cannot be modified").build();
             throw new WebApplicationException(response);
         }
-        if (service.findById(hotel.getId()) == null) {
-            // Verify if the hotel exists. Return 404, if not present.
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
+        Long version = EntityTags.expectedVersion(headers, hotel.getId());
         
         Response.ResponseBuilder builder = null;
         
         try {
-            // Apply the changes the Hotel.
-            service.update(hotel);
+            // Apply the changes the Hotel, which fails if it does not exist or has been changed since the client read it.
+            service.update(hotel, version);
 
             // Create an OK Response and pass the hotel back in case it is needed.
-            builder = Response.ok(hotel);
+            builder = Response.ok(hotel).tag(EntityTags.of(hotel.getId(), hotel.getVersion()));
 
-            log.info("updateHotel completed. Hotel = " + hotel.getName() + " " + hotel.getPhoneNumber() + " "
-                    +hotel.getPostcode()+" "+ " " + hotel.getId());
+            log.info("updateHotel completed. {0}", hotel);
+        } catch (EntityNotFoundException e) {
+            log.info("EntityNotFoundException - {0}", e);
+            builder = Response.status(Response.Status.NOT_FOUND);
+        } catch (OptimisticLockException e) {
+            log.info("OptimisticLockException - {0}", e);
+            // Someone else has updated the hotel since the client read it
+            builder = Response.status(Response.Status.PRECONDITION_FAILED);
         } catch (ConstraintViolationException ce) {
-            log.info("ConstraintViolationException - " + ce.toString());
+            log.info("ConstraintViolationException - {0}", ce);
             // Handle bean validation issues
             builder = createViolationResponse(ce.getConstraintViolations());
         } catch (ValidationException e) {
-            log.info("ValidationException - " + e.toString());
+            log.info("ValidationException - {0}", e);
             // Handle the unique constrain violation
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("phonenumber", "That phonenumber is already used, please use a unique email");
@@ -218,7 +445,7 @@ public class HotelRESTService {
             responseObj.put("anotherError", "You can find this error message in /src/main/java/org/jboss/quickstarts/wfk/rest/HotelRESTService.java line 242.");
             builder = Response.status(Response.Status.CONFLICT).entity(responseObj);
         } catch (Exception e) {
-            log.info("Exception - " + e.toString());
+            log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", e.getMessage());
@@ -239,7 +466,7 @@ public class HotelRESTService {
     @DELETE
     @Path("/{id:[0-9][0-9]*}")
     public Response deleteHotel(@PathParam("id") Long id) {
-        log.info("deleteHotel started. Hotel ID = " + id);
+        log.info("deleteHotel started. Hotel ID = {0}", id);
         Response.ResponseBuilder builder = null;
 
        // try {
@@ -255,7 +482,7 @@ public class HotelRESTService {
            // log.info("deleteHotel completed. Hotel = " + hotel.getName() +" " + hotel.getPostcode()+ " " + hotel.getPhoneNumber() + " "
            //         + " " + hotel.getId());
         //} catch (Exception e) {
-           // log.info("Exception - " + e.toString());
+           // log.info("Exception - {0}", e);
             // Handle generic exceptions
             Map<String, String> responseObj = new HashMap<String, String>();
             responseObj.put("error", "b");
@@ -273,7 +500,7 @@ public class HotelRESTService {
      * @return A Bad Request (400) Response containing all violation messages
      */
     private Response.ResponseBuilder createViolationResponse(Set<ConstraintViolation<?>> violations) {
-        log.fine("Validation completed. violations found: " + violations.size());
+        log.fine("Validation completed. violations found: {0}", violations.size());
 
         Map<String, String> responseObj = new HashMap<String, String>();
 
@@ -19,15 +19,22 @@ package org.jboss.quickstarts.wfk.hotel;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Set;
+
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link HotelService} with the
@@ -43,10 +50,13 @@ import java.util.logging.Logger;
 public class HotelRepository {
 
     @Inject
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
 
     @Inject
     private EntityManager em;
+
+    @Inject
+    private HotelNameIndex names;
     
     /**
      * <p>Returns a List of all persisted {@link Hotel} objects, sorted alphabetically by name.</p>
@@ -58,6 +68,86 @@ public class HotelRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns the number of Hotels, and the sums of their ids and of their versions, which together change whenever a
+     * Hotel is created, updated or deleted.</p>
+     *
+     * @return The count, the sum of the ids and the sum of the versions, the sums being null if there are no Hotels
+     */
+    Object[] findAllVersion() {
+        return em.createNamedQuery(Hotel.FIND_ALL_VERSION, Object[].class).getSingleResult();
+    }
+
+    /**
+     * <p>Returns the next chunk of {@link Hotel} objects, sorted by id, for streaming the whole table.</p>
+     *
+     * <p>The persistence context is cleared first, so the Hotels of the previous chunk can be garbage collected and
+     * memory use stays bounded by the chunk size.</p>
+     *
+     * @param afterId The id of the last Hotel of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Hotels to return
+     * @return List of Hotel objects
+     */
+    List<Hotel> findChunk(long afterId, int size) {
+        em.clear();
+        TypedQuery<Hotel> query = em.createNamedQuery(Hotel.FIND_PAGE, Hotel.class)
+            .setParameter("afterId", afterId)
+            .setMaxResults(size);
+        return query.getResultList();
+    }
+
+    /**
+     * <p>Returns a page of the {@link Hotel} objects, sorted by id, that have no Booking on any day of the given range.</p>
+     *
+     * @param from The first day of the range
+     * @param to The last day of the range
+     * @param postcode Only return Hotels with this postcode, or null for any postcode
+     * @param afterId The id of the last Hotel of the previous page (0 for the first page)
+     * @param limit The maximum number of Hotels to return
+     * @return List of Hotel objects, empty if none is free
+     */
+    List<Hotel> findAvailable(Date from, Date to, String postcode, long afterId, int limit) {
+        TypedQuery<Hotel> query;
+        if (postcode == null) {
+            query = em.createNamedQuery(Hotel.FIND_AVAILABLE, Hotel.class);
+        } else {
+            query = em.createNamedQuery(Hotel.FIND_AVAILABLE_BY_POSTCODE, Hotel.class).setParameter("postcode", postcode);
+        }
+        return query.setParameter("from", from)
+            .setParameter("to", to)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+
+    /**
+     * <p>Returns which of the given ids belong to a persisted {@link Hotel}, with a single query.</p>
+     *
+     * @param ids The ids to look for
+     * @return The ids of the Hotels that exist
+     */
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashSet<Long>();
+        }
+        TypedQuery<Long> query = em.createNamedQuery(Hotel.FIND_IDS, Long.class).setParameter("ids", ids);
+        return new HashSet<Long>(query.getResultList());
+    }
+
+    /**
+     * <p>Returns which of the given phone numbers are already used by a persisted {@link Hotel}, with a single query.</p>
+     *
+     * @param phoneNumbers The phone numbers to look for
+     * @return The phone numbers that are taken
+     */
+    Set<String> findExistingPhoneNumbers(Collection<String> phoneNumbers) {
+        if (phoneNumbers.isEmpty()) {
+            return new HashSet<String>();
+        }
+        TypedQuery<String> query = em.createNamedQuery(Hotel.FIND_PHONE_NUMBERS, String.class).setParameter("phoneNumbers", phoneNumbers);
+        return new HashSet<String>(query.getResultList());
+    }
+
     /**
      * <p>Returns a single Hotel object, specified by a Long id.<p/>
      *
@@ -75,15 +165,61 @@ public class HotelRepository {
      *
      **/
   
+    /**
+     * <p>Returns the ids of the Hotels with the given phone number, at most one as it is unique. Unlike
+     * {@link #findByPhoneNumber(String)} this neither loads the Hotel nor throws when there is none.</p>
+     *
+     * @param phoneNumber The phoneNumber field of the Hotels to look for
+     * @return The ids of the Hotels with that phone number, empty if there are none
+     */
+    List<Long> findIdsByPhoneNumber(String phoneNumber) {
+        TypedQuery<Long> query = em.createNamedQuery(Hotel.FIND_IDS_BY_PHONENUMBER, Long.class).setParameter("phoneNumber", phoneNumber);
+        return query.getResultList();
+    }
+
     Hotel findByPhoneNumber(String phoneNumber){
         TypedQuery<Hotel> query = em.createNamedQuery(Hotel.FIND_BY_PHONENUMBER, Hotel.class).setParameter("phoneNumber", phoneNumber); 
         return query.getSingleResult();
     }
 
-    Hotel findByPostcode(String postcode){
-        TypedQuery<Hotel> query = em.createNamedQuery(Hotel.FIND_BY_POSTCODE, Hotel.class).setParameter("postcode", postcode); 
-        return query.getSingleResult();
+    /**
+     * <p>Returns the Hotels with the given postcode, sorted by id. Several Hotels can share a postcode.</p>
+     *
+     * @param postcode The postcode field of the Hotels to be returned
+     * @return List of Hotel objects, empty if there are none
+     */
+    List<Hotel> findByPostcode(String postcode){
+        TypedQuery<Hotel> query = em.createNamedQuery(Hotel.FIND_BY_POSTCODE, Hotel.class).setParameter("postcode", Hotel.normalisePostcode(postcode)); 
+        return query.getResultList();
+    }
+
+    /**
+     * <p>Returns a page of the Hotels whose postcode starts with the given prefix, sorted by id.</p>
+     *
+     * @param prefix The start of the postcode, in the form it is stored in and without LIKE wildcards
+     * @param afterId The id of the last Hotel of the previous page (0 for the first page)
+     * @param limit The maximum number of Hotels to return
+     * @return List of Hotel objects, empty if there are none in that area
+     */
+    List<Hotel> findByPostcodePrefix(String prefix, long afterId, int limit) {
+        return em.createNamedQuery(Hotel.FIND_BY_POSTCODE_PREFIX, Hotel.class)
+            .setParameter("prefix", prefix + "%")
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+    /**
+     * <p>Returns the id and name of the Hotels whose name starts with the prefix, from the {@link HotelNameIndex}
+     * rather than the database.</p>
+     *
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Hotels to return
+     * @return The matching Hotels, in alphabetical order
+     */
+    List<PrefixIndex.Match> suggestByName(String prefix, int limit) {
+        return names.suggest(prefix, limit);
     }
+
     /**
      * <p>Returns a single Hotel object, specified by a String name.<p/>
      *
@@ -93,13 +229,8 @@ public class HotelRepository {
      * @return The first Hotel with the specified name
      */
     Hotel findByName(String name) {
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<Hotel> criteria = cb.createQuery(Hotel.class);
-        Root<Hotel> hotel = criteria.from(Hotel.class);
-        // Swap criteria statements if you would like to try out type-safe criteria queries, a new feature in JPA 2.0.
-        // criteria.select(hotel).where(cb.equal(hotel.get(Hotel_.name), name));
-        criteria.select(hotel).where(cb.equal(hotel.get("name"), name));
-        return em.createQuery(criteria).getSingleResult();
+        TypedQuery<Hotel> query = em.createNamedQuery(Hotel.FIND_BY_NAME, Hotel.class).setParameter("name", name);
+        return query.setMaxResults(1).getSingleResult();
     }
 
     /**
@@ -124,14 +255,33 @@ public class HotelRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Hotel create(Hotel hotel) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("HotelRepository.create() - Creating " + hotel.getName());
+        log.fine("HotelRepository.create() - Creating {0}", hotel);
         
         // Write the hotel to the database.
         em.persist(hotel);
+        flush();
+        names.put(hotel);
         
         return hotel;
     }
 
+    /**
+     * <p>Persists a chunk of new Hotel objects of a bulk import with a single flush, so that Hibernate can send the
+     * inserts in JDBC batches, then clears the persistence context so that the next chunk starts empty.</p>
+     *
+     * @param hotels The Hotel objects to be persisted
+     */
+    void createAll(List<Hotel> hotels) {
+        for (Hotel hotel : hotels) {
+            em.persist(hotel);
+        }
+        em.flush();
+        em.clear();
+        for (Hotel hotel : hotels) {
+            names.put(hotel);
+        }
+    }
+
     /**
      * <p>Updates an existing Hotel object in the application database with the provided Hotel object.</p>
      * 
@@ -141,19 +291,56 @@ public class HotelRepository {
      * 
      * <p>merge(Object) however must have an object with the @Id already generated.</p>
      * 
+     * <p>The stored Hotel is usually in the second-level cache, so comparing its version with the one the client expects
+     * costs no query, and fails a stale update before anything is written. The versioned UPDATE that merge flushes then
+     * catches a change committed in between, without the row having been locked.</p>
+     * 
      * @param hotel The Hotel object to be merged with an existing Hotel
-     * @return The Hotel that has been merged
+     * @param version The version the client expects the stored Hotel to have, or null to update it unconditionally
+     * @return The Hotel that has been merged, with its new version
+     * @throws EntityNotFoundException If there is no Hotel with that id
+     * @throws OptimisticLockException If the stored Hotel is not at the expected version
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Hotel update(Hotel hotel) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("HotelRepository.update() - Updating " + hotel.getName());
+    Hotel update(Hotel hotel, Long version) throws ConstraintViolationException, ValidationException, Exception {
+        log.fine("HotelRepository.update() - Updating {0} at version {1}", hotel, version);
         
-        // Either update the hotel or add it if it can't be found.
-        em.merge(hotel);
+        Hotel stored = em.find(Hotel.class, hotel.getId());
+        if (stored == null) {
+            throw new EntityNotFoundException("No Hotel with id " + hotel.getId());
+        }
+        if (version != null && version.longValue() != stored.getVersion()) {
+            throw new OptimisticLockException("Hotel " + hotel.getId() + " is no longer at version " + version);
+        }
+        // The version is not sent by clients, so carry on from the stored one: this is what merge compares it to.
+        hotel.setVersion(stored.getVersion());
+
+        Hotel merged = em.merge(hotel);
+        flush();
+        hotel.setVersion(merged.getVersion());
+        names.put(hotel);
         
         return hotel;
     }
 
+    /**
+     * <p>Writes pending changes to the database straight away. The validator has checked the phone number, but a hotel
+     * registered concurrently can take it before this one is written; the unique constraint then rejects the row here,
+     * and that is reported as the same violation rather than failing the transaction at commit time.</p>
+     *
+     * @throws ValidationException If the phone number is already used
+     */
+    private void flush() throws ValidationException {
+        try {
+            em.flush();
+        } catch (PersistenceException e) {
+            if (PersistenceErrors.isUniqueViolation(e)) {
+                throw new ValidationException("Unique phoneNumber Violation");
+            }
+            throw e;
+        }
+    }
+
     /**
      * <p>Deletes the provided Hotel object from the application database if found there</p>
      *
@@ -26,17 +26,27 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.quickstarts.wfk.util.BulkImport;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.NewTransaction;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
-import java.util.logging.Logger;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -57,7 +67,7 @@ import java.util.logging.Logger;
 public class HotelService {
 
     @Inject  //create logger instance??
-    private @Named("logger") Logger log;
+    private @Named("logger") StructuredLogger log;
 
     @Inject
     private HotelValidator validator;
@@ -67,6 +77,9 @@ public class HotelService {
 
     @Inject
     private @Named("httpClient") CloseableHttpClient httpClient;
+
+    @Inject
+    private NewTransaction transactions;
     
     /**
      * <p>Returns a List of all persisted {@link Hotel} objects, sorted alphabetically by name.<p/>
@@ -77,6 +90,40 @@ public class HotelService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns the number of Hotels and the sums of their ids and versions, which identify the current state of the
+     * list for HTTP caching.<p/>
+     *
+     * @return The count, the sum of the ids and the sum of the versions
+     */
+    Object[] findAllVersion() {
+        return crud.findAllVersion();
+    }
+
+    /**
+     * <p>Returns the next chunk of {@link Hotel} objects, sorted by id, for streaming the whole table.<p/>
+     *
+     * @param afterId The id of the last Hotel of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of Hotels to return
+     * @return List of Hotel objects
+     */
+    List<Hotel> findChunk(long afterId, int size) {
+        return crud.findChunk(afterId, size);
+    }
+    
+    /**
+     * <p>Returns a page of the {@link Hotel} objects, sorted by id, that have no Booking on any day of the given range.<p/>
+     *
+     * @param range The days the Hotels must be free on
+     * @param postcode Only return Hotels with this postcode, or null for any postcode
+     * @param afterId The id of the last Hotel of the previous page (0 for the first page)
+     * @param limit The maximum number of Hotels to return
+     * @return List of Hotel objects, empty if none is free
+     */
+    List<Hotel> findAvailable(DateRange range, String postcode, long afterId, int limit) {
+        return crud.findAvailable(range.getFrom(), range.getTo(), postcode, afterId, limit);
+    }
+
     /**
      * <p>Returns a single Hotel object, specified by a Long id.<p/>
      * 
@@ -98,10 +145,33 @@ public class HotelService {
     Hotel findByPhoneNumber(String phoneNumber){
     	return crud.findByPhoneNumber(phoneNumber);
     }
-    Hotel findByPostcode(String postcode){
+    List<Hotel> findByPostcode(String postcode){
     	return crud.findByPostcode(postcode);
     }
 
+    /**
+     * <p>Returns a page of the {@link Hotel} objects, sorted by id, in the area given by the start of a postcode.<p/>
+     *
+     * @param prefix The start of the postcode, in the form it is stored in
+     * @param afterId The id of the last Hotel of the previous page (0 for the first page)
+     * @param limit The maximum number of Hotels to return
+     * @return List of Hotel objects, empty if there are none in that area
+     */
+    List<Hotel> findByPostcodePrefix(String prefix, long afterId, int limit) {
+        return crud.findByPostcodePrefix(prefix, afterId, limit);
+    }
+
+    /**
+     * <p>Returns the id and name of the Hotels whose name starts with what the user has typed, for type-ahead search.<p/>
+     *
+     * @param prefix What the user has typed so far
+     * @param limit The maximum number of Hotels to return
+     * @return The matching Hotels, in alphabetical order
+     */
+    List<PrefixIndex.Match> suggestByName(String prefix, int limit) {
+        return crud.suggestByName(prefix, limit);
+    }
+
     /**
      * <p>Returns a single Hotel object, specified by a String name.<p/>
      *
@@ -116,6 +186,46 @@ public class HotelService {
 
    
 
+    /**
+     * <p>Imports new Hotel objects from the records of a CSV or NDJSON upload, a chunk at a time.<p/>
+     *
+     * <p>Records that are not valid, or whose phoneNumber is already used, are rejected and the import carries on.<p/>
+     *
+     * @param records The records to import
+     * @param mapper The ObjectMapper used to convert each record to a Hotel
+     * @return The outcome of the import
+     */
+    ImportSummary importHotels(RecordReader records, ObjectMapper mapper) {
+        return new BulkImport<Hotel>(Hotel.class, mapper, transactions, log) {
+            @Override
+            protected String keyField() {
+                return "phoneNumber";
+            }
+
+            @Override
+            protected String keyOf(Hotel hotel) {
+                return hotel.getPhoneNumber();
+            }
+
+            @Override
+            protected Set<String> existingKeys(Collection<String> keys) {
+                return crud.findExistingPhoneNumbers(keys);
+            }
+
+            @Override
+            protected Set<ConstraintViolation<Hotel>> validate(Hotel hotel) {
+                // Ids are always generated
+                hotel.setId(null);
+                return validator.validateFields(hotel);
+            }
+
+            @Override
+            protected void write(List<Hotel> hotels) {
+                crud.createAll(hotels);
+            }
+        }.run(records);
+    }
+    
     /**
      * <p>Writes the provided Hotel object to the application database.<p/>
      *
@@ -126,7 +236,7 @@ public class HotelService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Hotel create(Hotel hotel) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("HotelService.create() - Creating " + hotel.getName());
+        log.info("HotelService.create() - Creating {0}", hotel);
         
         // Check to make sure the data fits with the parameters in the Hotel model and passes validation.
         validator.validateHotel(hotel);
@@ -160,11 +270,12 @@ public class HotelService {
      * <p>Validates the data in the provided Hotel object using a HotelValidator object.<p/>
      * 
      * @param hotel The Hotel object to be passed as an update to the application database
+     * @param version The version the client expects the stored Hotel to have, or null to update it unconditionally
      * @return The Hotel object that has been successfully updated in the application database
      * @throws ConstraintViolationException, ValidationException, Exception
      */
-    Hotel update(Hotel hotel) throws ConstraintViolationException, ValidationException, Exception {
-        log.info("HotelService.update() - Updating " + hotel.getName());
+    Hotel update(Hotel hotel, Long version) throws ConstraintViolationException, ValidationException, Exception {
+        log.info("HotelService.update() - Updating {0}", hotel);
         
         // Check to make sure the data fits with the parameters in the Hotel model and passes validation.
         validator.validateHotel(hotel);
@@ -186,8 +297,8 @@ public class HotelService {
         hotel.setState(areaCodes.getJSONObject(0).getString("state"));
         HttpClientUtils.closeQuietly(response);**/
 
-        // Either update the hotel or add it if it can't be found.
-        return crud.update(hotel);
+        // Update the hotel, provided it exists and is still at the expected version.
+        return crud.update(hotel, version);
     }
 
     /**
@@ -198,7 +309,7 @@ public class HotelService {
      * @throws Exception
      */
     Hotel delete(Hotel hotel) throws Exception {
-        log.info("HotelService.delete() - Deleting " + hotel.getName());
+        log.info("HotelService.delete() - Deleting {0}", hotel);
         
         Hotel deletedHotel = null;
         
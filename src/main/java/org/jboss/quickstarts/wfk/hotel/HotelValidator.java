@@ -20,7 +20,6 @@ import java.util.HashSet;
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -68,6 +67,17 @@ public class HotelValidator {
         }
     }
 
+    /**
+     * <p>Checks the given Hotel against its bean validation rules only, for a bulk import which checks the uniqueness
+     * of a whole chunk of Hotels at once.</p>
+     *
+     * @param hotel The Hotel object to be validated
+     * @return The violated constraints, empty if there are none
+     */
+    Set<ConstraintViolation<Hotel>> validateFields(Hotel hotel) {
+        return validator.validate(hotel);
+    }
+
     /**
      * <p>Checks if a hotel with the same phone number address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "phone_number")" constraint from the Hotel class.</p>
@@ -75,29 +85,19 @@ public class HotelValidator {
      * <p>Since Update will being using an  that is already in the database we need to make sure that it is the phone number
      * from the record being updated.</p>
      * 
+     * <p>Only the ids of the Hotels with that number are read, so no Hotel is loaded, and a new number (the usual case)
+     * is an empty result rather than a NoResultException.</p>
+     * 
      * @param phone number The phone number to check is unique
      * @param id The user id to check the phone number against if it was found
      * @return boolean which represents whether the phone number was found, and if so if it belongs to the user with id
      */
     boolean phoneNumberAlreadyExists(String phoneNumber, Long id) {
-        Hotel hotel = null;
-        Hotel hotelWithID = null;
-        try {
-            hotel = crud.findByPhoneNumber(phoneNumber);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (hotel != null && id != null) {
-            try {
-                hotelWithID = crud.findById(id);
-                if (hotelWithID != null && hotelWithID.getPhoneNumber().equals(phoneNumber)) {
-                    hotel = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
+        for (Long hotelId : crud.findIdsByPhoneNumber(phoneNumber)) {
+            if (!hotelId.equals(id)) {
+                return true;
             }
         }
-        return hotel != null;
+        return false;
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.ejb.EJBException;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.spi.AsynchronousResponse;
+
+/**
+ * <p>Runs the work of suspended (asynchronous) REST requests on the EJB container's asynchronous thread pool, through
+ * {@link AsyncWorker}, so that a slow write holds one of those threads instead of an HTTP worker thread, and fast reads
+ * keep being served while the database is slow.</p>
+ *
+ * <p>The container queues asynchronous calls without a bound, so the dispatcher bounds them itself: it counts the
+ * requests handed to the pool and not yet answered, and once {@link #THREADS} are running and {@link #QUEUE_CAPACITY}
+ * more are waiting, a request is not queued behind work it would time out waiting for. It is answered straight away
+ * with a 503 (Service Unavailable) and a <i>Retry-After</i> header, which pushes back on the client instead of on the
+ * server. The counters are exposed by {@link #snapshot()}.</p>
+ *
+ * <p>The work is given as a call to the synchronous variant of the endpoint through its EJB business interface, so it
+ * still runs in a transaction of its own and returns the same responses.</p>
+ */
+@ApplicationScoped
+public class AsyncDispatcher {
+
+    /** The number of threads running asynchronous requests, as configured for the pool in the ejb3 subsystem. */
+    public static final int THREADS = 16;
+
+    /** The number of requests that can wait for a thread before new ones are turned away. */
+    public static final int QUEUE_CAPACITY = 200;
+
+    /** How long a suspended request waits for its response before RESTEasy answers it with a 503. */
+    public static final long TIMEOUT_MILLIS = 30000;
+
+    /** How long a client that was turned away is asked to wait before trying again. */
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    @Inject
+    private @Named("logger") StructuredLogger log;
+
+    @Inject
+    private AsyncWorker worker;
+
+    // Requests handed to the worker and not answered yet, whether they are waiting for a thread or running
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * <p>Runs the call on the asynchronous thread pool and resumes the suspended request with the Response it returns.</p>
+     *
+     * <p>A WebApplicationException thrown by the call resumes the request with its Response, as it would have been
+     * for a synchronous request; any other exception with a 500 (Internal Server Error).</p>
+     *
+     * @param response The suspended request
+     * @param call The work of the request
+     */
+    public void dispatch(final AsynchronousResponse response, final Callable<Response> call) {
+        if (pending.incrementAndGet() > THREADS + QUEUE_CAPACITY) {
+            pending.decrementAndGet();
+            reject(response);
+            return;
+        }
+        try {
+            worker.run(new Runnable() {
+                @Override
+                public void run() {
+                    running.incrementAndGet();
+                    try {
+                        response.setResponse(invoke(call));
+                    } finally {
+                        running.decrementAndGet();
+                        pending.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+        } catch (EJBException e) {
+            // The container did not take the call, as happens while the application is being undeployed
+            pending.decrementAndGet();
+            reject(response);
+        }
+    }
+
+    /**
+     * <p>Returns the current state of the pool: its size, how many threads are busy, how many requests are waiting
+     * and how many have been completed or turned away since the application started.</p>
+     *
+     * @return The counters, by name
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> counters = new LinkedHashMap<String, Object>();
+        counters.put("threads", THREADS);
+        int active = running.get();
+        counters.put("activeThreads", active);
+        counters.put("queueDepth", Math.max(pending.get() - active, 0));
+        counters.put("queueCapacity", QUEUE_CAPACITY);
+        counters.put("completed", completed.get());
+        counters.put("rejected", rejected.get());
+        return counters;
+    }
+
+    private void reject(AsynchronousResponse response) {
+        long count = rejected.incrementAndGet();
+        log.warning("AsyncDispatcher - queue full, request turned away ({0} so far)", count);
+
+        Map<String, String> responseObj = new HashMap<String, String>();
+        responseObj.put("error", "The server is busy, please try again later");
+        response.setResponse(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+            .header("Retry-After", RETRY_AFTER_SECONDS).entity(responseObj).build());
+    }
+
+    private Response invoke(Callable<Response> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            // The EJB container wraps runtime exceptions, so look for the WebApplicationException inside
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof WebApplicationException) {
+                    return ((WebApplicationException) cause).getResponse();
+                }
+            }
+            log.log(Level.WARNING, "AsyncDispatcher - asynchronous request failed", e);
+
+            Map<String, String> responseObj = new HashMap<String, String>();
+            responseObj.put("error", e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(responseObj).build();
+        }
+    }
+}
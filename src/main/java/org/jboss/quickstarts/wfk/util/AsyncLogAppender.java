@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * <p>Writes the records of the {@link StructuredLogger}s on a thread of its own, so that a request does not wait for
+ * its log messages to be formatted and written to the server's handlers.</p>
+ *
+ * <p>Records wait in a bounded queue. When it is full, records below WARNING are dropped and counted rather than
+ * holding up the request, and warnings and errors are written on the caller's thread so they are never lost. A record
+ * that a handler fails to write is counted as failed and reported to that handler's {@link ErrorManager}.</p>
+ */
+@ApplicationScoped
+public class AsyncLogAppender {
+
+    /** The number of records that can wait to be written. */
+    static final int QUEUE_CAPACITY = 8192;
+
+    // Put on the queue to stop the writer once the records before it are written
+    private static final LogRecord STOP = new LogRecord(Level.OFF, "stop");
+
+    private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<LogRecord>(QUEUE_CAPACITY);
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    @PostConstruct
+    void start() {
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "async-log");
+        writer.setDaemon(true);
+        running = true;
+        writer.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        try {
+            // Let the writer empty the queue, up to a point
+            if (queue.offer(STOP, 1, TimeUnit.SECONDS)) {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.interrupt();
+    }
+
+    /**
+     * <p>Queues a record to be written to the Logger it names.</p>
+     *
+     * @param record The record, with its parameters already turned into text where needed
+     */
+    public void append(LogRecord record) {
+        if (running && queue.offer(record)) {
+            return;
+        }
+        if (!running || record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            Logger.getLogger(record.getLoggerName()).log(record);
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * <p>Returns how many records are waiting to be written, how many were dropped because too many were, and how many
+     * could not be written.</p>
+     *
+     * @return The counters, by name
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> counters = new LinkedHashMap<String, Object>();
+        counters.put("queueDepth", queue.size());
+        counters.put("queueCapacity", QUEUE_CAPACITY);
+        counters.put("dropped", dropped.get());
+        counters.put("failed", failed.get());
+        return counters;
+    }
+
+    private void write() {
+        try {
+            for (LogRecord record = queue.take(); record != STOP; record = queue.take()) {
+                Logger logger = Logger.getLogger(record.getLoggerName());
+                try {
+                    logger.log(record);
+                } catch (RuntimeException e) {
+                    // A broken handler or parameter must not stop the records after it being written
+                    failed.incrementAndGet();
+                    reportFailure(logger, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Tells the ErrorManager of the first handler the record was published to, which is what that handler would have
+     * done itself had it caught the exception.
+     */
+    private static void reportFailure(Logger logger, RuntimeException e) {
+        Logger target = logger;
+        while (target != null) {
+            Handler[] handlers = target.getHandlers();
+            if (handlers.length > 0) {
+                handlers[0].getErrorManager().error("Cannot write a log record of " + logger.getName(), e,
+                    ErrorManager.WRITE_FAILURE);
+                return;
+            }
+            target = target.getUseParentHandlers() ? target.getParent() : null;
+        }
+    }
+}
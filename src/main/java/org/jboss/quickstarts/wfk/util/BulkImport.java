@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * <p>Imports the records read by a {@link RecordReader} as new entities, a chunk of {@link #CHUNK_SIZE} records at a
+ * time.</p>
+ *
+ * <p>For each chunk the unique key of every record (e.g. a phone number or email address) is checked against the
+ * database with a single query, and against the keys already imported with an in-memory set, instead of one query per
+ * record. The valid records are then written together, letting Hibernate batch the inserts, and the persistence context
+ * is flushed and cleared so that memory use does not grow with the size of the import. Progress and throughput are
+ * logged after each chunk.</p>
+ *
+ * <p>The import itself runs without a transaction: each chunk is written and committed in a transaction of its own, by
+ * {@link NewTransaction}. An import of any length never runs into the transaction timeout, and the chunks that have been
+ * committed stay imported whatever happens to the ones that follow.</p>
+ *
+ * <p>Invalid records are rejected, with the same map of fields and related errors as the REST services return, and the
+ * import carries on with the next one. If the input cannot be read any further, or a chunk cannot be written, the
+ * import stops there and its summary is marked as incomplete.</p>
+ *
+ * <p>Subclasses say how to read, check and write the unique key of an entity.</p>
+ *
+ * @param <T> The type of entity being imported
+ * @see ImportSummary
+ */
+public abstract class BulkImport<T> {
+
+    /** The number of records checked and written at a time. */
+    public static final int CHUNK_SIZE = 500;
+
+    private final Class<T> type;
+    private final ObjectMapper mapper;
+    private final NewTransaction transactions;
+    private final StructuredLogger log;
+
+    /**
+     * @param type The entity class the records are converted to
+     * @param mapper The ObjectMapper used to convert a record to an entity, as it would be from JSON
+     * @param transactions The bean each chunk is written through, in a transaction of its own
+     * @param log The logger to report progress to
+     */
+    protected BulkImport(Class<T> type, ObjectMapper mapper, NewTransaction transactions, StructuredLogger log) {
+        this.type = type;
+        this.mapper = mapper;
+        this.transactions = transactions;
+        this.log = log;
+    }
+
+    /**
+     * @return The name of the unique field, as reported in error maps
+     */
+    protected abstract String keyField();
+
+    /**
+     * @param entity An entity read from the import
+     * @return The value of its unique field
+     */
+    protected abstract String keyOf(T entity);
+
+    /**
+     * @param keys The unique keys of a chunk of records
+     * @return Those of the keys that already belong to an entity in the database
+     */
+    protected abstract Set<String> existingKeys(Collection<String> keys);
+
+    /**
+     * @param entity An entity read from the import
+     * @return Its bean validation violations, empty if it is valid
+     */
+    protected abstract Set<ConstraintViolation<T>> validate(T entity);
+
+    /**
+     * <p>Writes a chunk of valid entities to the database, then flushes and clears the persistence context. It is called
+     * in the transaction the chunk is committed in.</p>
+     *
+     * @param entities The entities to be persisted
+     */
+    protected abstract void write(List<T> entities);
+
+    /**
+     * <p>Runs the import to the end of the input, or until it cannot go any further.</p>
+     *
+     * @param records The records to import
+     * @return The outcome of the import
+     */
+    public ImportSummary run(RecordReader records) {
+        long start = System.currentTimeMillis();
+        ImportSummary summary = new ImportSummary();
+        Set<String> importedKeys = new HashSet<String>();
+
+        List<T> entities = new ArrayList<T>(CHUNK_SIZE);
+        List<Integer> lines = new ArrayList<Integer>(CHUNK_SIZE);
+        Map<String, Object> unreadable = null;
+        try {
+            RecordReader.Record record;
+            while (summary.isComplete() && (record = records.next()) != null) {
+                summary.recordProcessed();
+                if (record.getError() != null) {
+                    summary.recordRejected(error(record.getLine(), "record", record.getError()));
+                    continue;
+                }
+                try {
+                    T entity = mapper.convertValue(record.getValues(), type);
+                    entities.add(entity);
+                    lines.add(record.getLine());
+                } catch (IllegalArgumentException e) {
+                    String message = "The fields do not match a " + type.getSimpleName();
+                    summary.recordRejected(error(record.getLine(), "record", message));
+                    continue;
+                }
+                if (entities.size() == CHUNK_SIZE) {
+                    importChunk(entities, lines, importedKeys, summary, start);
+                }
+            }
+        } catch (IOException e) {
+            log.info("{0} import stopped, the input cannot be read - {1}", type.getSimpleName(), e);
+            unreadable = error(records.getLine(), "record", e.getMessage());
+        }
+        // The records read before the input failed are still imported
+        if (summary.isComplete() && !entities.isEmpty()) {
+            importChunk(entities, lines, importedKeys, summary, start);
+        }
+        if (unreadable != null) {
+            summary.recordStopped(unreadable);
+        }
+
+        summary.setElapsedMillis(System.currentTimeMillis() - start);
+        log.info("{0} import completed: {1} imported, {2} rejected in {3} ms ({4} records/s)", type.getSimpleName(),
+            summary.getImported(), summary.getRejected(), summary.getElapsedMillis(), summary.getRecordsPerSecond());
+        return summary;
+    }
+
+    private void importChunk(List<T> entities, List<Integer> lines, Set<String> importedKeys, ImportSummary summary,
+                             long start) {
+        Set<String> keys = new HashSet<String>();
+        for (T entity : entities) {
+            if (keyOf(entity) != null) {
+                keys.add(keyOf(entity));
+            }
+        }
+        Set<String> existing = existingKeys(keys);
+
+        final List<T> valid = new ArrayList<T>(entities.size());
+        for (int i = 0; i < entities.size(); i++) {
+            T entity = entities.get(i);
+            Set<ConstraintViolation<T>> violations = validate(entity);
+            if (!violations.isEmpty()) {
+                Map<String, Object> error = error(lines.get(i), null, null);
+                for (ConstraintViolation<T> violation : violations) {
+                    error.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                summary.recordRejected(error);
+            } else if (existing.contains(keyOf(entity)) || !importedKeys.add(keyOf(entity))) {
+                summary.recordRejected(error(lines.get(i), keyField(),
+                    "That " + keyField() + " is already used, please use a unique " + keyField()));
+            } else {
+                valid.add(entity);
+            }
+        }
+
+        if (!valid.isEmpty()) {
+            try {
+                transactions.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(valid);
+                    }
+                });
+                summary.recordImported(valid.size());
+            } catch (RuntimeException e) {
+                // Only this chunk has been rolled back, the ones before it are committed
+                log.info("{0} import stopped, a chunk cannot be written - {1}", type.getSimpleName(), e);
+                summary.recordStopped(error(lines.get(0), "record",
+                    "The records from this line on could not be written, please import them again"));
+            }
+        }
+        entities.clear();
+        lines.clear();
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("{0} import: {1} records processed, {2} imported, {3} rejected ({4} records/s)", type.getSimpleName(),
+            summary.getProcessed(), summary.getImported(), summary.getRejected(), summary.getProcessed() * 1000L / elapsed);
+    }
+
+    private static Map<String, Object> error(int line, String field, String message) {
+        Map<String, Object> error = new LinkedHashMap<String, Object>();
+        error.put("line", line);
+        if (field != null) {
+            error.put(field, message);
+        }
+        return error;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * <p>An inclusive range of days, parsed from the <i>from</i> and <i>to</i> query parameters of a REST request.</p>
+ *
+ * <p>Days use the same yyyy-MM-dd format as the JSON produced by {@link JacksonConfig}. A missing bound leaves that end
+ * of the range open, which is represented by a sentinel day far in the past or future so that the queries can always
+ * bind both parameters.</p>
+ */
+public final class DateRange {
+
+    private static final String FORMAT = "yyyy-MM-dd";
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // Open bounds, well outside any date a booking can have
+    private static final Date MIN = day("0001-01-01");
+    private static final Date MAX = day("9999-12-31");
+
+    private final Date from;
+    private final Date to;
+
+    private DateRange(Date from, Date to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * <p>Parses the range given by the <i>from</i> and <i>to</i> query parameters, either of which may be missing.</p>
+     *
+     * @param from The first day of the range, or null for no lower bound
+     * @param to The last day of the range, or null for no upper bound
+     * @return The parsed range
+     * @throws WebApplicationException A Bad Request (400) if a day is not a valid yyyy-MM-dd date or the range is empty
+     */
+    public static DateRange of(String from, String to) {
+        DateRange range = new DateRange(from == null ? MIN : parse("from", from), to == null ? MAX : parse("to", to));
+        if (range.from.after(range.to)) {
+            throw Paging.badRequest("to", "The end of the range must not be before its start");
+        }
+        return range;
+    }
+
+    /**
+     * @return The first day of the range
+     */
+    public Date getFrom() {
+        return from;
+    }
+
+    /**
+     * @return The last day of the range
+     */
+    public Date getTo() {
+        return to;
+    }
+
+    /**
+     * <p>Returns the number of days in the range, counting both ends.</p>
+     *
+     * @return The length of the range in days
+     */
+    public long getDays() {
+        // Round rather than truncate, a daylight saving change makes a day an hour shorter or longer
+        return Math.round((to.getTime() - from.getTime()) / (double) MILLIS_PER_DAY) + 1;
+    }
+
+    private static Date parse(String field, String value) {
+        try {
+            return parseDay(value);
+        } catch (ParseException e) {
+            throw Paging.badRequest(field, "Dates must be in the format " + FORMAT);
+        }
+    }
+
+    private static Date day(String value) {
+        try {
+            return parseDay(value);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // SimpleDateFormat is not thread safe, so each parse gets its own
+    private static Date parseDay(String value) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(FORMAT);
+        format.setLenient(false);
+        String day = value.trim();
+        ParsePosition position = new ParsePosition(0);
+        Date date = format.parse(day, position);
+        // Reject trailing characters as well, which parse(String) would silently ignore
+        if (date == null || position.getIndex() != day.length()) {
+            throw new ParseException(value, position.getErrorIndex());
+        }
+        return date;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Builds the entity tags (ETags) that let clients revalidate what they have cached of a resource with a conditional
+ * GET, and answers those with a 304 (Not Modified) instead of reading and serialising the resource again.</p>
+ *
+ * <p>The tag of an entity is its id and its JPA version, which changes with every update. The tag of a list is the
+ * number of entities and the sums of their ids and versions, read with one aggregate query: a create or delete changes
+ * the count, an update the sum of the versions.</p>
+ *
+ * <p>The same tag makes an update conditional: sent back in an <i>If-Match</i> header, it gives the version the client
+ * last saw, and the update fails with a 412 (Precondition Failed) if the entity has been changed since.</p>
+ *
+ * <p>Responses are marked <i>no-cache</i>, which lets the client keep them but makes it check with the server each time
+ * it wants to use one.</p>
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    /**
+     * @param id The id of the entity
+     * @param version The JPA version of the entity
+     * @return The tag of the entity
+     */
+    public static EntityTag of(Long id, long version) {
+        return new EntityTag(id + "-" + version);
+    }
+
+    /**
+     * <p>Builds the tag of a list from the row of an aggregate query, whose SUMs are null when the table is empty.</p>
+     *
+     * @param aggregate The count of the entities and the sums of their ids and versions
+     * @return The tag of the list
+     */
+    public static EntityTag ofAll(Object[] aggregate) {
+        StringBuilder tag = new StringBuilder("all");
+        for (Object value : aggregate) {
+            tag.append('-').append(value == null ? 0 : value);
+        }
+        return new EntityTag(tag.toString());
+    }
+
+    /**
+     * <p>Checks the <i>If-None-Match</i> header of the request against the current tag of the resource.</p>
+     *
+     * @param request The request
+     * @param tag The current tag of the resource
+     * @return A 304 (Not Modified) Response if the client's copy is current, or null if the resource has to be sent
+     */
+    public static Response notModified(Request request, EntityTag tag) {
+        Response.ResponseBuilder builder = request.evaluatePreconditions(tag);
+        return builder == null ? null : builder.tag(tag).cacheControl(revalidate()).build();
+    }
+
+    /**
+     * <p>Reads the version a conditional update expects the entity to be at from the <i>If-Match</i> header of the
+     * request. Only a single strong tag of the entity itself can match, as the version is all that is compared.</p>
+     *
+     * @param headers The headers of the request
+     * @param id The id of the entity being updated
+     * @return The expected version, or null if there is no If-Match header or it is "*", for an unconditional update
+     * @throws WebApplicationException A Precondition Failed (412) if the header does not hold a tag of the entity
+     */
+    public static Long expectedVersion(HttpHeaders headers, Long id) {
+        List<String> values = headers.getRequestHeader(HttpHeaders.IF_MATCH);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        String value = values.get(0).trim();
+        if (values.size() == 1 && "*".equals(value)) {
+            return null;
+        }
+        if (values.size() == 1) {
+            try {
+                EntityTag tag = EntityTag.valueOf(value);
+                String prefix = id + "-";
+                if (!tag.isWeak() && tag.getValue().startsWith(prefix)) {
+                    return Long.valueOf(tag.getValue().substring(prefix.length()));
+                }
+            } catch (IllegalArgumentException e) {
+                // Not a tag this service handed out (NumberFormatException is one too), so it cannot match
+            }
+        }
+        throw new WebApplicationException(Response.Status.PRECONDITION_FAILED);
+    }
+
+    /**
+     * @param entity The resource
+     * @param tag The current tag of the resource
+     * @return A 200 (OK) Response with the resource and its tag
+     */
+    public static Response ok(Object entity, EntityTag tag) {
+        return Response.ok(entity).tag(tag).cacheControl(revalidate()).build();
+    }
+
+    // CacheControl is mutable, so each response gets its own
+    private static CacheControl revalidate() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        return cacheControl;
+    }
+}
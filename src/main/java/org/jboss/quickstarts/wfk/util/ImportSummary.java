@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The outcome of a bulk import, returned to the client as JSON once the import has finished.</p>
+ *
+ * <p>Only the first {@link #MAX_ERRORS} rejected records are described in {@link #getErrors()}, so that the response
+ * stays small however bad the input is; {@link #getRejected()} counts all of them.</p>
+ *
+ * <p>Each chunk of the import is committed on its own, so an import that stops part way ({@link #isComplete()} is
+ * false) has still imported the records counted by {@link #getImported()}.</p>
+ *
+ * @see BulkImport
+ */
+public class ImportSummary {
+
+    /** The largest number of rejected records that are described in the summary. */
+    public static final int MAX_ERRORS = 100;
+
+    private int processed;
+    private int imported;
+    private int rejected;
+    private long elapsedMillis;
+    private boolean complete = true;
+    private List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+
+    void recordProcessed() {
+        processed++;
+    }
+
+    void recordImported(int count) {
+        imported += count;
+    }
+
+    void recordRejected(Map<String, Object> error) {
+        rejected++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    // The reason the import stopped is always listed, even past MAX_ERRORS
+    void recordStopped(Map<String, Object> error) {
+        complete = false;
+        errors.add(error);
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return The number of records read from the input
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return The number of records written to the database
+     */
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * @return The number of records that were not written, because they could not be read or were not valid
+     */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return false if the import stopped before the end of the input, because the input could not be read or a chunk
+     *         could not be written. The records imported until then stay imported, and the last error says where it
+     *         stopped.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return How long the import took, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The number of records processed per second
+     */
+    public long getRecordsPerSecond() {
+        return elapsedMillis == 0 ? processed : processed * 1000L / elapsedMillis;
+    }
+
+    /**
+     * @return For each of the first rejected records, its line number and a map of fields and related errors
+     */
+    public List<Map<String, Object>> getErrors() {
+        return errors;
+    }
+}
@@ -16,11 +16,14 @@
  */
 package org.jboss.quickstarts.wfk.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.regex.Pattern;
 
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -30,6 +33,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.annotation.WebFilter;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
@@ -39,11 +43,19 @@ import javax.servlet.http.HttpServletResponseWrapper;
  *
  * <p>To qualify for wrapping the request must be made to the <i>/rest/*</i> path, and contain a query parameter call
  * <i>jsoncallback<i/> that defines the JSONP callback method to use with the response.</p>
+ *
+ * <p>The padding is written around the response once the resource has returned, so JSONP requests cannot be made to
+ * the asynchronous endpoints, which return before their response is written. JSONP is only used for GET requests, and
+ * those are all synchronous.</p>
+ *
+ * <p>Every request to the REST resources passes through this filter, so it also records them in {@link RequestMetrics},
+ * from the time they arrive until their response has been written.</p>
  * 
  * @author balunasj
  * @see javax.servlet.Filter
  */
-@WebFilter("/rest/*")
+// Asynchronous endpoints are behind this filter too, so it has to let them suspend their requests
+@WebFilter(urlPatterns = "/rest/*", asyncSupported = true)
 public class JSONPRequestFilter implements Filter {
     // The callback method to use
     private static final String CALLBACK_METHOD = "jsonpcallback";
@@ -53,6 +65,15 @@ public class JSONPRequestFilter implements Filter {
 
     public static final String CONTENT_TYPE = "application/javascript";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The names the whole HTTP exchange, including writing the response, is measured under
+    static final String JSON_ENDPOINT = "http";
+    static final String JSONP_ENDPOINT = "http.jsonp";
+
+    @Inject
+    private RequestMetrics metrics;
+
     @Override
     public void init(FilterConfig config) throws ServletException {
         // Nothing needed
@@ -71,49 +92,48 @@ public class JSONPRequestFilter implements Filter {
 
         // extract the callback method from the request query parameters
         String callback = getCallbackMethod(httpRequest);
+        boolean jsonp = isJSONPRequest(callback);
+
+        long start = System.nanoTime();
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        try {
+            filter(httpRequest, httpResponse, chain, callback, jsonp);
+            status = httpResponse.getStatus();
+        } finally {
+            // A suspended request is answered by another thread, its resource method is measured there
+            if (!httpRequest.isAsyncStarted()) {
+                metrics.endpoint(jsonp ? JSONP_ENDPOINT : JSON_ENDPOINT).record(System.nanoTime() - start, status);
+            }
+        }
+    }
 
-        if (!isJSONPRequest(callback)) {
+    private void filter(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain,
+        String callback, boolean jsonp) throws IOException, ServletException {
+
+        if (!jsonp) {
             // Request is not a JSONP request move on
-            chain.doFilter(request, response);
+            chain.doFilter(httpRequest, httpResponse);
         } else {
             // Need to check if the callback method is safe
             if (!SAFE_PRN.matcher(callback).matches()) {
                 throw new ServletException("JSONP Callback method '" + CALLBACK_METHOD + "' parameter not valid function");
             }
 
-            // Will stream updated response
-            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            // Override response content and encoding; the wrapper keeps the JAX-RS response from changing them back
+            httpResponse.setContentType(CONTENT_TYPE);
+            httpResponse.setCharacterEncoding("UTF-8");
 
-            // Create a custom response wrapper to adding in the padding
-            HttpServletResponseWrapper responseWrapper = new HttpServletResponseWrapper(httpResponse) {
+            // Stream the padded response: the prefix first, then the JAX-RS response as it is written, then the suffix
+            ServletOutputStream out = httpResponse.getOutputStream();
+            out.write((callback + "(").getBytes(UTF_8));
 
-                @Override
-                public ServletOutputStream getOutputStream() throws IOException {
-                    return new ServletOutputStream() {
-                        @Override
-                        public void write(int b) throws IOException {
-                            byteStream.write(b);
-                        }
-                    };
-                }
-
-                @Override
-                public PrintWriter getWriter() throws IOException {
-                    return new PrintWriter(byteStream);
-                }
-            };
+            JSONPResponseWrapper responseWrapper = new JSONPResponseWrapper(httpResponse, out);
 
             // Process the rest of the filter chain, including the JAX-RS request
-            chain.doFilter(request, responseWrapper);
+            chain.doFilter(new SynchronousRequestWrapper(httpRequest), responseWrapper);
 
-            // Override response content and encoding
-            response.setContentType(CONTENT_TYPE);
-            response.setCharacterEncoding("UTF-8");
-
-            // Write the padded updates to the output stream.
-            response.getOutputStream().write((callback + "(").getBytes());
-            response.getOutputStream().write(byteStream.toByteArray());
-            response.getOutputStream().write(");".getBytes());
+            responseWrapper.flushWriter();
+            out.write(");".getBytes(UTF_8));
         }
     }
 
@@ -130,4 +150,132 @@ public class JSONPRequestFilter implements Filter {
     public void destroy() {
         // Nothing to do
     }
+
+    /**
+     * <p>Refuses to suspend the request, since the JSONP suffix could not be written after an asynchronous response.</p>
+     */
+    private static class SynchronousRequestWrapper extends HttpServletRequestWrapper {
+
+        SynchronousRequestWrapper(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return false;
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            throw new IllegalStateException("JSONP requests cannot be asynchronous");
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            throw new IllegalStateException("JSONP requests cannot be asynchronous");
+        }
+    }
+
+    /**
+     * <p>Passes the body written by the rest of the filter chain straight through to the real response, without
+     * buffering it, so that it ends up between the JSONP prefix and suffix written by the filter.</p>
+     *
+     * <p>The content type, encoding and length of the padded response are set by the filter, so the wrapped resource is
+     * not allowed to change them, and it cannot close the stream before the suffix is written.</p>
+     */
+    private static class JSONPResponseWrapper extends HttpServletResponseWrapper {
+        private final ServletOutputStream stream;
+        private PrintWriter writer;
+
+        JSONPResponseWrapper(HttpServletResponse response, final ServletOutputStream out) {
+            super(response);
+            this.stream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() {
+                    // The filter still has to write the suffix, the container closes the stream
+                }
+            };
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(stream, UTF_8));
+            }
+            return writer;
+        }
+
+        void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            // Always application/javascript, set by the filter
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            // Always UTF-8, set by the filter
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            // The padding makes the response longer than the JAX-RS body
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!isPaddedHeader(name)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!isPaddedHeader(name)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (!isPaddedHeader(name)) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (!isPaddedHeader(name)) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        private static boolean isPaddedHeader(String name) {
+            return "Content-Type".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+        }
+    }
 }
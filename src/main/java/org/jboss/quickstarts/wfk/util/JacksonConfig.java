@@ -22,6 +22,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
 
 
 import org.codehaus.jackson.map.ObjectMapper;
@@ -47,4 +48,15 @@ public class JacksonConfig implements ContextResolver<ObjectMapper> {
     public ObjectMapper getContext(Class<?> objectType) {
         return objectMapper;
     }
+
+    /**
+     * <p>Looks up the application's ObjectMapper, for resources that read or write JSON themselves.</p>
+     *
+     * @param providers The JAX-RS providers of the request
+     * @return The ObjectMapper configured by this class
+     */
+    public static ObjectMapper objectMapper(Providers providers) {
+        return providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE)
+            .getContext(ObjectMapper.class);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * <p>A JAX-RS StreamingOutput that writes a whole table as a JSON array, one chunk of entities at a time.</p>
+ *
+ * <p>Entities are read in chunks of {@link #CHUNK_SIZE}, ordered by id and seeking past the last id of the previous
+ * chunk, and each one is written straight to the response through the {@link JacksonConfig} ObjectMapper. Only one
+ * chunk is ever held in memory, and the serialised JSON is never buffered as a whole, so exporting a table of any size
+ * runs in bounded memory.</p>
+ *
+ * <p>Subclasses say how to fetch a chunk and how to read the id of an entity.</p>
+ *
+ * @param <T> The type of entity being written
+ * @see javax.ws.rs.core.StreamingOutput
+ */
+public abstract class JsonArrayStreamingOutput<T> implements StreamingOutput {
+
+    /** The number of entities read from the database, and held in memory, at a time. */
+    public static final int CHUNK_SIZE = 500;
+
+    private final ObjectMapper mapper;
+
+    /**
+     * @param providers The JAX-RS providers of the request, used to look up the application's ObjectMapper
+     */
+    protected JsonArrayStreamingOutput(Providers providers) {
+        this.mapper = JacksonConfig.objectMapper(providers);
+    }
+
+    /**
+     * <p>Fetches the next chunk of entities, ordered by id. Implementations should release the previous chunk from the
+     * persistence context before loading the next one.</p>
+     *
+     * @param afterId The id of the last entity of the previous chunk (0 for the first chunk)
+     * @param size The maximum number of entities to return
+     * @return The next chunk, which is shorter than size once the end of the table is reached
+     */
+    protected abstract List<T> nextChunk(long afterId, int size);
+
+    /**
+     * @param entity An entity of the current chunk
+     * @return The id of the entity
+     */
+    protected abstract long idOf(T entity);
+
+    @Override
+    public void write(final OutputStream output) throws IOException, WebApplicationException {
+        // ObjectMapper flushes the generator after every value; keep those flushes from reaching the response so that
+        // the client is sent one write per chunk rather than one per entity.
+        OutputStream perChunk = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+        JsonGenerator generator = mapper.getJsonFactory().createJsonGenerator(perChunk, JsonEncoding.UTF8);
+        // The container owns the response stream, leave it open for it to finish the response.
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+        try {
+            generator.writeStartArray();
+
+            long afterId = 0;
+            List<T> chunk;
+            do {
+                chunk = nextChunk(afterId, CHUNK_SIZE);
+                for (T entity : chunk) {
+                    mapper.writeValue(generator, entity);
+                    afterId = idOf(entity);
+                }
+                // Push each chunk to the client as soon as it is written.
+                generator.flush();
+                output.flush();
+            } while (chunk.size() == CHUNK_SIZE);
+
+            generator.writeEndArray();
+        } finally {
+            generator.close();
+        }
+    }
+}
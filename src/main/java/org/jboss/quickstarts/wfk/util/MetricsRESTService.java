@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.Map;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * <p>Exposes the operational counters of the application over HTTP, as JSON.</p>
+ *
+ * <p>Full path for accessing the metrics is rest/metrics .</p>
+ */
+@Path("/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+@RequestScoped
+public class MetricsRESTService {
+
+    @Inject
+    private AsyncDispatcher dispatcher;
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Inject
+    private AsyncLogAppender appender;
+
+    /**
+     * <p>Returns the request counts, response codes and latency percentiles of every endpoint that has been called.</p>
+     *
+     * @return The counters of each endpoint, by endpoint name
+     */
+    @GET
+    public Map<String, Object> retrieveRequestMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * <p>Returns the state of the {@link AsyncDispatcher} that runs the asynchronous endpoints.</p>
+     *
+     * @return The dispatcher's counters, by name
+     */
+    @GET
+    @Path("/dispatcher")
+    public Map<String, Object> retrieveDispatcherMetrics() {
+        return dispatcher.snapshot();
+    }
+
+    /**
+     * <p>Returns the state of the {@link AsyncLogAppender} that writes the application's log records.</p>
+     *
+     * @return The appender's counters, by name
+     */
+    @GET
+    @Path("/logging")
+    public Map<String, Object> retrieveLoggingMetrics() {
+        return appender.snapshot();
+    }
+}
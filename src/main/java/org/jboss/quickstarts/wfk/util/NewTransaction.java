@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+ * <p>Runs a unit of work in a transaction of its own, which is committed as soon as the work returns and rolled back if
+ * it throws.</p>
+ *
+ * <p>The transaction attributes of an EJB only apply to calls made through the container, so a bean cannot start a new
+ * transaction by calling one of its own methods. {@link BulkImport} runs without a transaction and writes each chunk
+ * through this bean instead.</p>
+ */
+@Stateless
+public class NewTransaction {
+
+    /**
+     * @param work The work to run, typically writes through the injected EntityManager
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void run(Runnable work) {
+        work.run();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * <p>Helpers shared by the REST services for keyset ("seek") pagination.</p>
+ *
+ * <p>A page is requested with <i>afterId</i>, the id of the last item of the previous page, and <i>limit</i>, the
+ * maximum number of items to return. Because the queries seek straight to <i>afterId</i> on the primary key index,
+ * fetching page 1000 costs the same as fetching page 1.</p>
+ *
+ * @see javax.ws.rs.QueryParam
+ */
+public final class Paging {
+
+    /** The page size used when the client does not ask for one. */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /** The largest page size a client can ask for. */
+    public static final int MAX_LIMIT = 1000;
+
+    private Paging() {
+    }
+
+    /**
+     * <p>Returns the page size to use for the requested <i>limit</i>, capped at {@link #MAX_LIMIT}.</p>
+     *
+     * @param limit The <i>limit</i> query parameter, or null if it was not given
+     * @return The number of items to fetch
+     * @throws WebApplicationException A Bad Request (400) if the limit is not a positive number
+     */
+    public static int limit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1) {
+            throw badRequest("limit", "The limit must be a positive number");
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * <p>Returns the id to seek past for the requested <i>afterId</i>; the first page starts after id 0.</p>
+     *
+     * @param afterId The <i>afterId</i> query parameter, or null if it was not given
+     * @return The id after which the page starts
+     */
+    public static long afterId(Long afterId) {
+        return afterId == null ? 0L : afterId;
+    }
+
+    /**
+     * <p>Builds the value of a <i>Link</i> header pointing to the page that follows the one ending with <i>lastId</i>.</p>
+     *
+     * @param uriInfo The URI of the current request
+     * @param lastId The id of the last item on the current page
+     * @return A <i>rel="next"</i> Link header value
+     */
+    public static String nextLink(UriInfo uriInfo, long lastId) {
+        return "<" + uriInfo.getRequestUriBuilder().replaceQueryParam("afterId", lastId).build() + ">; rel=\"next\"";
+    }
+
+    /**
+     * <p>Creates the exception used to reject an invalid query parameter, with the same field/message map the REST
+     * services use for bean validation errors.</p>
+     *
+     * @param field The name of the offending query parameter
+     * @param message The error message
+     * @return A WebApplicationException carrying a Bad Request (400) response
+     */
+    public static WebApplicationException badRequest(String field, String message) {
+        Map<String, String> responseObj = new HashMap<String, String>();
+        responseObj.put(field, message);
+        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(responseObj).build());
+    }
+}
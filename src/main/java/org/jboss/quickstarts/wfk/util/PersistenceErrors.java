@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.sql.SQLException;
+
+/**
+ * <p>Helpers for making sense of the exceptions thrown by the persistence provider.</p>
+ *
+ * <p>Hibernate wraps the JDBC driver's SQLException in one or more layers of PersistenceException, so the only portable
+ * way to find out why a write failed is to walk the cause chain and look at the SQLState.</p>
+ *
+ * @see javax.persistence.PersistenceException
+ */
+public final class PersistenceErrors {
+
+    // SQLState reported by H2 (and PostgreSQL) when a unique index or constraint is violated
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private PersistenceErrors() {
+    }
+
+    /**
+     * <p>Checks whether the given exception was caused by the database rejecting a row because it would have broken a
+     * unique constraint.</p>
+     *
+     * @param e The exception thrown while flushing or committing
+     * @return true if a unique constraint violation is somewhere in the cause chain
+     */
+    public static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>An in-memory index of names for type-ahead search: it finds the entities with a name, or any word of it, that
+ * starts with what the user has typed so far.</p>
+ *
+ * <p>Every term of an entity is a key of a sorted map, in lower case and followed by the entity's id so that entities
+ * with the same name do not clash. The entries starting with a prefix are then a contiguous range of the map, found
+ * with one seek whatever the number of entities, and read in alphabetical order.</p>
+ *
+ * <p>Lookups take no lock. Changes are serialised, so that the terms of an entity are always replaced as a whole, and
+ * each one can be reverted, for when the transaction that made it does not commit.</p>
+ */
+public final class PrefixIndex {
+
+    /** The number of suggestions returned when the client does not ask for a number. */
+    public static final int DEFAULT_LIMIT = 10;
+
+    // Sorts before any character of a name, so that "ann" + SEPARATOR + id comes before "anna" + SEPARATOR + id
+    private static final char SEPARATOR = '\u0000';
+
+    // term + SEPARATOR + id -> the entity
+    private final ConcurrentNavigableMap<String, Match> entries = new ConcurrentSkipListMap<String, Match>();
+
+    // id -> how it is indexed, so that a changed name can be replaced
+    private final ConcurrentMap<Long, Entry> indexed = new ConcurrentHashMap<Long, Entry>();
+
+    /**
+     * <p>Indexes an entity under the given terms, replacing whatever it was indexed under before.</p>
+     *
+     * @param id The id of the entity
+     * @param name The name returned for the entity when it matches
+     * @param terms The terms the entity can be found by; null terms are skipped
+     * @return The change, which {@link #revert(Change)} undoes
+     */
+    public synchronized Change put(Long id, String name, String... terms) {
+        Entry previous = indexed.get(id);
+        Entry current = entry(id, name, terms);
+        replace(id, previous, current);
+        return new Change(id, previous, current);
+    }
+
+    /**
+     * <p>Indexes an entity under the given terms, unless it is already indexed.</p>
+     *
+     * @param id The id of the entity
+     * @param name The name returned for the entity when it matches
+     * @param terms The terms the entity can be found by; null terms are skipped
+     * @return true if the entity was indexed, false if it already was
+     */
+    public synchronized boolean putIfAbsent(Long id, String name, String... terms) {
+        if (indexed.containsKey(id)) {
+            return false;
+        }
+        replace(id, null, entry(id, name, terms));
+        return true;
+    }
+
+    /**
+     * <p>Puts the entity back under the terms it had before the change, or takes it out if it had none.</p>
+     *
+     * <p>Nothing is done if the entity has been put again since, as that later change is the one that counts.</p>
+     *
+     * @param change A change returned by {@link #put(Long, String, String...)}
+     * @return true if the change was reverted
+     */
+    public synchronized boolean revert(Change change) {
+        if (indexed.get(change.id) != change.current) {
+            return false;
+        }
+        replace(change.id, change.current, change.previous);
+        return true;
+    }
+
+    /**
+     * <p>Returns the entities with a term starting with the prefix, by alphabetical order of the term, each entity once.</p>
+     *
+     * @param prefix What the user has typed so far; case and surrounding blanks do not matter
+     * @param limit The maximum number of entities to return
+     * @return The matching entities, empty if there are none
+     */
+    public List<Match> find(String prefix, int limit) {
+        String from = normalise(prefix);
+        Map<Long, Match> matches = new LinkedHashMap<Long, Match>();
+        for (Match match : entries.subMap(from, true, from + Character.MAX_VALUE, true).values()) {
+            if (matches.size() == limit) {
+                break;
+            }
+            if (!matches.containsKey(match.getId())) {
+                matches.put(match.getId(), match);
+            }
+        }
+        return new ArrayList<Match>(matches.values());
+    }
+
+    private Entry entry(Long id, String name, String... terms) {
+        List<String> keys = new ArrayList<String>(terms.length);
+        for (String term : terms) {
+            String word = term == null ? "" : normalise(term);
+            if (!word.isEmpty()) {
+                keys.add(word + SEPARATOR + id);
+            }
+        }
+        return new Entry(new Match(id, name), keys);
+    }
+
+    private void replace(Long id, Entry from, Entry to) {
+        if (from != null) {
+            for (String key : from.keys) {
+                entries.remove(key);
+            }
+        }
+        if (to == null) {
+            indexed.remove(id);
+            return;
+        }
+        for (String key : to.keys) {
+            entries.put(key, to.match);
+        }
+        indexed.put(id, to);
+    }
+
+    private static String normalise(String term) {
+        return term.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * <p>A call to {@link PrefixIndex#put(Long, String, String...)}, kept by the caller so that it can be reverted.</p>
+     */
+    public static final class Change {
+        private final Long id;
+        private final Entry previous;
+        private final Entry current;
+
+        private Change(Long id, Entry previous, Entry current) {
+            this.id = id;
+            this.previous = previous;
+            this.current = current;
+        }
+    }
+
+    // The match returned for an entity, and its keys in entries
+    private static final class Entry {
+        private final Match match;
+        private final List<String> keys;
+
+        private Entry(Match match, List<String> keys) {
+            this.match = match;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * <p>An entity found by a prefix, serialised to JSON as its id and name.</p>
+     */
+    public static final class Match {
+        private final Long id;
+        private final String name;
+
+        private Match(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+/**
+ * <p>Reads the records of a bulk import one line at a time from the request body, so that an import of any size is
+ * never held in memory as a whole.</p>
+ *
+ * <p>Two formats are supported:</p>
+ * <ul>
+ * <li><i>text/csv</i>: the first line names the fields (as in the JSON representation, e.g. <i>name,phoneNumber</i>)
+ * and every following line is one record. Fields may be quoted with double quotes, a quote inside a quoted field is
+ * doubled.</li>
+ * <li><i>application/x-ndjson</i>: every line is one JSON object.</li>
+ * </ul>
+ *
+ * <p>Blank lines are skipped. A line that cannot be parsed is returned as a {@link Record} with an error, so that the
+ * import can reject it and carry on.</p>
+ */
+public class RecordReader {
+
+    public static final String TEXT_CSV = "text/csv";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final BufferedReader reader;
+    private final ObjectMapper mapper;
+    private final boolean csv;
+    private List<String> header;
+    private int line;
+
+    /**
+     * @param input The request body
+     * @param mediaType The content type of the request body, text/csv or application/x-ndjson
+     * @param mapper The ObjectMapper used to parse the NDJSON lines
+     */
+    public RecordReader(InputStream input, MediaType mediaType, ObjectMapper mapper) {
+        this.reader = new BufferedReader(new InputStreamReader(input, UTF_8));
+        this.mapper = mapper;
+        this.csv = isCsv(mediaType);
+    }
+
+    /**
+     * @param mediaType The content type of a request body
+     * @return true if the records are in CSV, false if they are in NDJSON
+     */
+    public static boolean isCsv(MediaType mediaType) {
+        return mediaType != null && "text".equals(mediaType.getType()) && "csv".equals(mediaType.getSubtype());
+    }
+
+    /**
+     * @return The number of the last line read, counting from 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * <p>Reads the next record.</p>
+     *
+     * @return The next record, or null at the end of the input
+     * @throws IOException If the request body cannot be read
+     */
+    public Record next() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            line++;
+            if (text == null) {
+                return null;
+            }
+        } while (text.trim().isEmpty() || (csv && header == null && readHeader(text)));
+
+        if (!csv) {
+            try {
+                return new Record(line, mapper.<Map<String, Object>>readValue(text, JSON_OBJECT), null);
+            } catch (IOException e) {
+                return new Record(line, null, "The line is not a JSON object");
+            }
+        }
+
+        List<String> fields = splitCsv(text);
+        if (fields == null || fields.size() != header.size()) {
+            return new Record(line, null, "Expected " + header.size() + " comma separated fields");
+        }
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < fields.size(); i++) {
+            values.put(header.get(i), fields.get(i));
+        }
+        return new Record(line, values, null);
+    }
+
+    private boolean readHeader(String text) throws IOException {
+        header = splitCsv(text);
+        if (header == null) {
+            throw new IOException("The CSV header line is not valid");
+        }
+        for (int i = 0; i < header.size(); i++) {
+            header.set(i, header.get(i).trim());
+        }
+        return true;
+    }
+
+    // Splits one CSV line into its fields, or returns null if a quoted field is not closed
+    private static List<String> splitCsv(String text) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * <p>One record of the import: its field values, or why the line could not be read.</p>
+     */
+    public static final class Record {
+        private final int line;
+        private final Map<String, Object> values;
+        private final String error;
+
+        private Record(int line, Map<String, Object> values, String error) {
+            this.line = line;
+            this.values = values;
+            this.error = error;
+        }
+
+        /**
+         * @return The line number of the record in the input, starting at 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return The field values by name, or null if the line could not be read
+         */
+        public Map<String, Object> getValues() {
+            return values;
+        }
+
+        /**
+         * @return Why the line could not be read, or null if it was read
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
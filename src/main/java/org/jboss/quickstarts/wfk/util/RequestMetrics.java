@@ -0,0 +1,241 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * <p>Records how many requests each endpoint has served, how long they took and how they were answered.</p>
+ *
+ * <p>Recording a request takes a few atomic increments and no allocation once the endpoint has been seen, so it is
+ * cheap enough to leave on all the time. Latencies are counted in a fixed set of buckets whose width grows with the
+ * latency, in the manner of an HDR histogram, so a percentile is accurate to within an eighth of its value whatever
+ * the spread of the latencies.</p>
+ *
+ * <p>Requests are recorded by {@link RequestMetricsInterceptor} for the REST resources and by
+ * {@link JSONPRequestFilter} for the whole HTTP exchange, and reported by {@link MetricsRESTService}.</p>
+ */
+@ApplicationScoped
+public class RequestMetrics {
+
+    private final ConcurrentMap<Object, Endpoint> endpoints = new ConcurrentHashMap<Object, Endpoint>();
+
+    private final long started = System.nanoTime();
+
+    /**
+     * <p>Returns the endpoint of a resource method, reported as <i>Class.method</i>.</p>
+     *
+     * <p>The endpoint is looked up by the Method itself, so its name is only built the first time.</p>
+     *
+     * @param method The resource method
+     * @return The endpoint, to {@link Endpoint#record(long, int)} requests with
+     */
+    public Endpoint endpoint(Method method) {
+        Endpoint endpoint = endpoints.get(method);
+        return endpoint != null ? endpoint
+            : register(method, method.getDeclaringClass().getSimpleName() + "." + method.getName());
+    }
+
+    /**
+     * <p>Returns the endpoint with the given name.</p>
+     *
+     * @param name The name the endpoint is reported under
+     * @return The endpoint, to {@link Endpoint#record(long, int)} requests with
+     */
+    public Endpoint endpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        return endpoint != null ? endpoint : register(name, name);
+    }
+
+    private Endpoint register(Object key, String name) {
+        Endpoint created = new Endpoint(name);
+        Endpoint endpoint = endpoints.putIfAbsent(key, created);
+        return endpoint != null ? endpoint : created;
+    }
+
+    /**
+     * <p>Returns the counters of every endpoint that has served a request, sorted by name.</p>
+     *
+     * @return The counters of each endpoint, by endpoint name
+     */
+    public Map<String, Object> snapshot() {
+        double seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+        Map<String, Object> snapshot = new TreeMap<String, Object>();
+        for (Endpoint endpoint : endpoints.values()) {
+            snapshot.put(endpoint.name, endpoint.snapshot(seconds));
+        }
+        return snapshot;
+    }
+
+    /**
+     * <p>The counters of a single endpoint.</p>
+     */
+    public static final class Endpoint {
+
+        // Latencies below 2^SUB_BITS microseconds get a bucket each, above that each power of two is split in
+        // 2^SUB_BITS buckets
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        // Latencies of 2^(MAX_EXPONENT + 1) microseconds (about 36 minutes) or more all go in the last bucket
+        private static final int MAX_EXPONENT = 30;
+        private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+        // The responses counted separately, the rest are counted by class, as 2xx, 3xx, 4xx and 5xx
+        private static final int[] STATUSES = { 400, 404, 409, 412 };
+        private static final String[] CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx" };
+        private static final int OTHER = STATUSES.length + CLASSES.length;
+
+        private final String name;
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray statuses = new AtomicLongArray(OTHER + 1);
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        /**
+         * <p>Records a request.</p>
+         *
+         * @param nanos How long the request took, from System.nanoTime()
+         * @param status The HTTP status it was answered with, or 0 if it was suspended and answered elsewhere, which
+         *        is counted as other
+         */
+        public void record(long nanos, int status) {
+            long micros = Math.max(0, nanos / 1000);
+            latencies.incrementAndGet(bucketOf(micros));
+            statuses.incrementAndGet(statusIndexOf(status));
+            totalMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        private Map<String, Object> snapshot(double seconds) {
+            long[] counts = new long[BUCKETS];
+            long requests = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = latencies.get(i);
+                requests += counts[i];
+            }
+
+            Map<String, Object> latency = new LinkedHashMap<String, Object>();
+            latency.put("p50", millis(percentile(counts, requests, 0.5)));
+            latency.put("p99", millis(percentile(counts, requests, 0.99)));
+            latency.put("p999", millis(percentile(counts, requests, 0.999)));
+            latency.put("max", millis(maxMicros.get()));
+            latency.put("mean", requests == 0 ? 0 : millis(totalMicros.get() / requests));
+
+            Map<String, Long> responses = new LinkedHashMap<String, Long>();
+            long errors = 0;
+            for (int i = 0; i <= OTHER; i++) {
+                long count = statuses.get(i);
+                if (count > 0) {
+                    responses.put(statusName(i), count);
+                    if (isError(i)) {
+                        errors += count;
+                    }
+                }
+            }
+
+            Map<String, Object> endpoint = new LinkedHashMap<String, Object>();
+            endpoint.put("requests", requests);
+            endpoint.put("requestsPerSecond", Math.round(requests / seconds * 100) / 100.0);
+            endpoint.put("errors", errors);
+            endpoint.put("responses", responses);
+            endpoint.put("latencyMillis", latency);
+            return endpoint;
+        }
+
+        static int bucketOf(long micros) {
+            if (micros < LINEAR) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            // The top SUB_BITS bits below the leading one pick the bucket within the power of two
+            int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        // The highest latency that falls in the bucket
+        static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BITS);
+            return (1L << exponent) + (sub + 1) * width - 1;
+        }
+
+        private static long percentile(long[] counts, long requests, double fraction) {
+            if (requests == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(requests * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(counts.length - 1);
+        }
+
+        private static double millis(long micros) {
+            return Math.round(micros / 10.0) / 100.0;
+        }
+
+        private static int statusIndexOf(int status) {
+            for (int i = 0; i < STATUSES.length; i++) {
+                if (STATUSES[i] == status) {
+                    return i;
+                }
+            }
+            int statusClass = status / 100 - 1;
+            return statusClass >= 0 && statusClass < CLASSES.length ? STATUSES.length + statusClass : OTHER;
+        }
+
+        private static String statusName(int index) {
+            if (index < STATUSES.length) {
+                return String.valueOf(STATUSES[index]);
+            }
+            return index < OTHER ? CLASSES[index - STATUSES.length] : "other";
+        }
+
+        private static boolean isError(int index) {
+            return index < STATUSES.length || index == STATUSES.length + 3 || index == STATUSES.length + 4;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Records each call to a REST resource method in {@link RequestMetrics}, under the name of the resource class and
+ * method, with the status of the Response it returned.</p>
+ *
+ * <p>A WebApplicationException is recorded with the status of its Response, any other exception as a 500 (Internal
+ * Server Error).</p>
+ *
+ * <p>Resource classes are measured by naming this class in their &#064;Interceptors annotation. Their asynchronous
+ * methods are left out with &#064;ExcludeClassInterceptors: they return before the response is known, and the
+ * synchronous method they dispatch to is recorded when it runs.</p>
+ */
+public class RequestMetricsInterceptor {
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @AroundInvoke
+    public Object record(InvocationContext invocation) throws Exception {
+        RequestMetrics.Endpoint endpoint = metrics.endpoint(invocation.getMethod());
+        long start = System.nanoTime();
+        int status = Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+        try {
+            Object result = invocation.proceed();
+            status = result instanceof Response ? ((Response) result).getStatus() : 0;
+            return result;
+        } catch (WebApplicationException e) {
+            status = e.getResponse().getStatus();
+            throw e;
+        } finally {
+            endpoint.record(System.nanoTime() - start, status);
+        }
+    }
+}
@@ -19,11 +19,13 @@ package org.jboss.quickstarts.wfk.util;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * <p>This class uses CDI to alias Java EE resources, such as the persistence context, to CDI beans.</p>
@@ -44,12 +46,16 @@ public class Resources {
     @PersistenceContext(unitName = "contacts_pu")
     private EntityManager em;
 
+    @Produces
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
     private static final CloseableHttpClient HTTP_CLIENT = HttpClients.createDefault();
 
     @Produces
     @Named("logger")
-    public Logger produceLog(InjectionPoint injectionPoint) {
-        return Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
+    public StructuredLogger produceLog(InjectionPoint injectionPoint, AsyncLogAppender appender) {
+        return new StructuredLogger(Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName()), appender);
     }
 
     @Produces
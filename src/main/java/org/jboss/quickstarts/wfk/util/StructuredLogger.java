@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * <p>A thin wrapper around a java.util.logging Logger that takes its messages as a pattern and parameters, in the
+ * <code>{0}</code> syntax of java.text.MessageFormat, instead of as a concatenated String.</p>
+ *
+ * <p>Nothing is built when the level is disabled: the level is checked before anything else, and the fixed arity
+ * methods take their parameters without a varargs array, so a disabled call costs a field read and a comparison.
+ * When the level is enabled the parameters are turned into text straight away, since entities can change or stop
+ * being readable once the call returns; putting them into the pattern, and writing the message, is left to the
+ * {@link AsyncLogAppender}.</p>
+ *
+ * <p>Instances are produced by {@link Resources} for the <i>logger</i> injection point, named after the class they are
+ * injected into.</p>
+ *
+ * <pre>
+ * log.info("createBooking completed, id={0} hotelId={1}", booking.getId(), hotelId);
+ * </pre>
+ */
+public class StructuredLogger {
+
+    private static final Object[] NO_PARAMETERS = new Object[0];
+
+    private final Logger logger;
+
+    // Null to write the records on the caller's thread
+    private final AsyncLogAppender appender;
+
+    /**
+     * <p>Creates a logger that writes its records straight away, on the caller's thread.</p>
+     *
+     * @param logger The Logger to write to
+     */
+    public StructuredLogger(Logger logger) {
+        this(logger, null);
+    }
+
+    StructuredLogger(Logger logger, AsyncLogAppender appender) {
+        this.logger = logger;
+        this.appender = appender;
+    }
+
+    /**
+     * @param level The level to check
+     * @return Whether messages of the level are written, to guard work done only to build a message
+     */
+    public boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    public void fine(String message) {
+        if (logger.isLoggable(Level.FINE)) {
+            publish(Level.FINE, message, null, NO_PARAMETERS);
+        }
+    }
+
+    public void fine(String pattern, Object p0) {
+        if (logger.isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, null, new Object[] { p0 });
+        }
+    }
+
+    public void fine(String pattern, Object p0, Object p1) {
+        if (logger.isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, null, new Object[] { p0, p1 });
+        }
+    }
+
+    public void fine(String pattern, Object p0, Object p1, Object p2) {
+        if (logger.isLoggable(Level.FINE)) {
+            publish(Level.FINE, pattern, null, new Object[] { p0, p1, p2 });
+        }
+    }
+
+    public void info(String message) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, message, null, NO_PARAMETERS);
+        }
+    }
+
+    public void info(String pattern, Object p0) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, new Object[] { p0 });
+        }
+    }
+
+    public void info(String pattern, Object p0, Object p1) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, new Object[] { p0, p1 });
+        }
+    }
+
+    public void info(String pattern, Object p0, Object p1, Object p2) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, new Object[] { p0, p1, p2 });
+        }
+    }
+
+    public void info(String pattern, Object p0, Object p1, Object p2, Object p3) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, new Object[] { p0, p1, p2, p3 });
+        }
+    }
+
+    /**
+     * <p>Logs a message with more parameters than the fixed arity methods take. The parameters are passed in an array
+     * that is built even when the level is disabled, so this is not for hot paths.</p>
+     *
+     * @param pattern The message, with a placeholder for each parameter
+     * @param parameters The parameters
+     */
+    public void info(String pattern, Object... parameters) {
+        if (logger.isLoggable(Level.INFO)) {
+            publish(Level.INFO, pattern, null, parameters.clone());
+        }
+    }
+
+    public void warning(String message) {
+        if (logger.isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, message, null, NO_PARAMETERS);
+        }
+    }
+
+    public void warning(String pattern, Object p0) {
+        if (logger.isLoggable(Level.WARNING)) {
+            publish(Level.WARNING, pattern, null, new Object[] { p0 });
+        }
+    }
+
+    /**
+     * <p>Logs a message with the stack trace of an exception.</p>
+     *
+     * @param level The level of the message
+     * @param message The message, which is not a pattern
+     * @param thrown The exception
+     */
+    public void log(Level level, String message, Throwable thrown) {
+        if (logger.isLoggable(level)) {
+            publish(level, message, thrown, NO_PARAMETERS);
+        }
+    }
+
+    private void publish(Level level, String pattern, Throwable thrown, Object[] parameters) {
+        LogRecord record = new LogRecord(level, pattern);
+        record.setLoggerName(logger.getName());
+        // The logger is named after its class. Setting it keeps the record from walking the stack to find the caller,
+        // which would find the appender's thread instead.
+        record.setSourceClassName(logger.getName());
+        record.setParameters(freeze(parameters));
+        record.setThrown(thrown);
+
+        if (appender != null) {
+            appender.append(record);
+        } else {
+            logger.log(record);
+        }
+    }
+
+    /*
+     * Entities can be changed, or their lazy associations become unreadable, before the appender gets to the record.
+     * Numbers are turned into text too, MessageFormat would otherwise write ids with thousands separators.
+     */
+    private static Object[] freeze(Object[] parameters) {
+        for (int i = 0; i < parameters.length; i++) {
+            if (!(parameters[i] instanceof String)) {
+                parameters[i] = String.valueOf(parameters[i]);
+            }
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.quickstarts.wfk.util;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Undoes a change made to one of the shared, in-memory indexes when the transaction that made it does not commit.</p>
+ *
+ * <p>The indexes are changed as soon as the database has accepted a write, so that the requests that follow see it,
+ * but the transaction can still be rolled back after that: by a later failure in the same request, or by the commit
+ * itself failing. The undo is registered as an interposed {@link Synchronization}, which the transaction manager calls
+ * once the outcome is known.</p>
+ */
+public final class TransactionUndo {
+
+    private TransactionUndo() {
+    }
+
+    /**
+     * <p>Runs the undo after the current transaction has completed, unless it committed.</p>
+     *
+     * <p>Without a registry (outside the container) or without a transaction there is nothing to roll back, so the
+     * change stands as it is and nothing is registered.</p>
+     *
+     * @param transactions The container's registry, or null outside the container
+     * @param undo Puts the index back as it was before the change
+     */
+    public static void onRollback(TransactionSynchronizationRegistry transactions, final Runnable undo) {
+        if (transactions == null || transactions.getTransactionKey() == null) {
+            return;
+        }
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    undo.run();
+                }
+            }
+        });
+    }
+}
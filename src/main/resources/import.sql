@@ -16,10 +16,10 @@
 --
 
 -- You can use this file to load seed data into the database using SQL statements
--- Since the database doesn't know to increase the Sequence to match what is manually loaded here it starts at 1 and tries
---  to enter a record with the same PK and create an error.  If we use a high we don't interfere with the sequencing (at least until later).
+-- Since the database doesn't know to increase the Sequence to match what is manually loaded here, the ids used below must
+--  stay under 20000, the initialValue of the Booking, Customer and Hotel sequences, so that they never clash with a generated id.
 -- NOTE: this file should be removed for production systems. 
-insert into Customer (id, first_name, last_name, email, phone_number, state) values (10001, 'John', 'Smith', 'john.smith@mailinator.com', '02234567890', 'NY')
-insert into Customer (id, first_name, last_name, email, phone_number, state) values (10002, 'Davey', 'Jones', 'davey.jones@locker.com', '01123456789', 'NY')
-insert into Hotel (id,name,phone_number,postcode) values (10003,'ddd','04434243456','df3fg4')
-insert into Booking(id,customerId,hotelId,booking_date) values (10002,10001,10003,'2016-09-09')
\ No newline at end of file
+insert into Customer (id, first_name, last_name, email, phone_number, state, version) values (10001, 'John', 'Smith', 'john.smith@mailinator.com', '02234567890', 'NY', 0)
+insert into Customer (id, first_name, last_name, email, phone_number, state, version) values (10002, 'Davey', 'Jones', 'davey.jones@locker.com', '01123456789', 'NY', 0)
+insert into Hotel (id,name,phone_number,postcode,version) values (10003,'ddd','04434243456','DF3FG4',0)
+insert into Booking(id,customerId,hotelId,booking_date,check_out_date,version) values (10002,10001,10003,'2016-09-09','2016-09-10',0)
\ No newline at end of file
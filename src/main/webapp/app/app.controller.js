@@ -157,7 +157,7 @@
             var headings = {};
             for(var i = 0; i<contacts.length; i++) {
                 //Get the first letter of a contact's firstName
-                var startsWithLetter = contacts[i].date.charAt(0).toUpperCase();
+                var startsWithLetter = contacts[i].bookingDate.charAt(0).toUpperCase();
                 //If we have encountered that first letter before then add the contact to that list, else create it
                 if(headings.hasOwnProperty(startsWithLetter)) {
                     headings[startsWithLetter].push(contacts[i]);
@@ -168,11 +168,27 @@
             return headings;
         };
 
+        //Bookings are listed a page at a time. The Link header of a full page points to the next one, whose afterId is
+        //kept here until the user asks for more; it is null once the last page has been listed
+        $scope.nextAfterId = null;
+
+        var getNextAfterId = function(headers) {
+            var next = /[?&]afterId=(\d+)[^>]*>\s*;\s*rel="next"/.exec(headers('Link') || '');
+            return next ? next[1] : null;
+        };
+
+        var showErrors = function(result) {
+            for(var error in result.data){
+                $scope.messages.push('danger', result.data[error]);
+            }
+        };
+
         //Upon initial loading of the controller, populate a list of Contacts and their letter headings
         $scope.contacts.data = $scope.contacts.query(
             //Successful query
-            function(data) {
+            function(data, headers) {
                 $scope.contacts.data = data;
+                $scope.nextAfterId = getNextAfterId(headers);
                 $scope.contactsList = getHeadings($scope.contacts.data);
                 //Keep the contacts list headings in sync with the underlying contacts
                 $scope.$watchCollection('contacts.data', function(newContacts, oldContacts) {
@@ -180,13 +196,23 @@
                 });
             },
             //Error
-            function(result) {
-                for(var error in result.data){
-                    $scope.messages.push('danger', result.data[error]);
-                }
-            }
+            showErrors
         );
 
+        //Add the next page of bookings to the list
+        $scope.loadMore = function() {
+            $scope.contacts.query({afterId: $scope.nextAfterId},
+                //Successful query
+                function(data, headers) {
+                    //Keep the same array, which the booking form adds to and removes from
+                    Array.prototype.push.apply($scope.contacts.data, data);
+                    $scope.nextAfterId = getNextAfterId(headers);
+                },
+                //Error
+                showErrors
+            );
+        };
+
         //Boolean flag representing whether the details of the contacts are expanded inline
         $scope.details = false;
 
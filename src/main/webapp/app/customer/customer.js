@@ -32,6 +32,8 @@
                 'update': {method: 'PUT'}
             }
         );
+        // rest/customers answers with an ETag and Cache-Control: no-cache, so the browser keeps the last response and
+        // revalidates it with If-None-Match; an unchanged list or entity comes back as an empty 304.
         //Declare public class variable to act as a pseudo-cache TODO: use proper $cacheFactor cache in Customer
         Customer.data = [];
         return Customer;
@@ -17,39 +17,66 @@
 package org.jboss.quickstarts.wfk.booking;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
 import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.BookingOccupancyIndex;
 import org.jboss.quickstarts.wfk.booking.BookingRESTService;
 import org.jboss.quickstarts.wfk.booking.BookingRepository;
 import org.jboss.quickstarts.wfk.booking.BookingService;
 import org.jboss.quickstarts.wfk.booking.BookingValidator;
 import org.jboss.quickstarts.wfk.customer.Customer;
+import org.jboss.quickstarts.wfk.customer.CustomerEmailIndex;
+import org.jboss.quickstarts.wfk.customer.CustomerNameIndex;
 import org.jboss.quickstarts.wfk.customer.CustomerRESTService;
 import org.jboss.quickstarts.wfk.customer.CustomerRepository;
 import org.jboss.quickstarts.wfk.customer.CustomerService;
 import org.jboss.quickstarts.wfk.customer.CustomerValidator;
 import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.jboss.quickstarts.wfk.hotel.HotelNameIndex;
 import org.jboss.quickstarts.wfk.hotel.HotelRESTService;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 import org.jboss.quickstarts.wfk.hotel.HotelService;
 import org.jboss.quickstarts.wfk.hotel.HotelValidator;
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.AsyncLogAppender;
+import org.jboss.quickstarts.wfk.util.AsyncWorker;
+import org.jboss.quickstarts.wfk.util.BulkImport;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.NewTransaction;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
 import org.jboss.quickstarts.wfk.util.Resources;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -94,17 +121,40 @@ public class BookingRegistrationTest {
                         BookingRepository.class, 
                         BookingValidator.class, 
                         BookingService.class, 
+                        BookingOccupancyIndex.class,
+                        BookingSummary.class,
                         Resources.class,
+                        AsyncLogAppender.class,
+                        StructuredLogger.class,
+                        AsyncDispatcher.class,
+                        AsyncWorker.class,
+                        RequestMetrics.class,
+                        RequestMetricsInterceptor.class,
+                        DateRange.class,
+                        EntityTags.class,
+                        JsonArrayStreamingOutput.class,
+                        Paging.class,
+                        PersistenceErrors.class,
+                        PrefixIndex.class,
+                        TransactionUndo.class,
+                        BulkImport.class,
+                        NewTransaction.class,
+                        ImportSummary.class,
+                        JacksonConfig.class,
+                        RecordReader.class,
                         
                         CustomerRESTService.class, 
                         CustomerRepository.class, 
                         CustomerValidator.class, 
+                        CustomerEmailIndex.class,
+                        CustomerNameIndex.class,
                         CustomerService.class,
                         Hotel.class, 
                         HotelRESTService.class, 
                         HotelRepository.class, 
                         HotelValidator.class, 
                         HotelService.class,
+                        HotelNameIndex.class,
                         Customer.class
                        )
             .addAsLibraries(libs)
@@ -125,7 +175,7 @@ public class BookingRegistrationTest {
     HotelRESTService hotelRESTService;
     
     @Inject
-    @Named("logger") Logger log;
+    @Named("logger") StructuredLogger log;
 
     //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
     @SuppressWarnings("deprecation")
@@ -172,9 +222,14 @@ public class BookingRegistrationTest {
     	Response response2 = hotelRESTService.createHotel(hotel);
         Response response3 = bookingRESTService.createBooking(booking);
     	
-		Response response = bookingRESTService.retrieveBookingByCustomer(customer.getId());
+		Response response = bookingRESTService.retrieveBookingByCustomer(customer.getId(), null, null, null, null, null);
 		
     	assertEquals("Cannot retrive all bookings by customer id",200,response.getStatus());
+    	@SuppressWarnings("unchecked")
+    	List<BookingSummary> bookings = (List<BookingSummary>) response.getEntity();
+    	assertEquals("Unexpected number of bookings", 1, bookings.size());
+    	assertEquals("Unexpected hotel name", "momo", bookings.get(0).getHotelName());
+    	assertEquals("Unexpected customer name", "lin xi", bookings.get(0).getCustomerName());
     	log.info("cannot retrive all bookings by customer id" + response.getStatus());
     }
     
@@ -215,6 +270,112 @@ public class BookingRegistrationTest {
            // ((Map<String, String>) response5.getEntity()).size());
         log.info("Duplicate customer register attempt failed with return code " + response5.getStatus());
     }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    @InSequence(6)
+    public void testOverlappingStay() throws Exception {
+        Customer customer = createCustomerInstance("ma", "lin", "malin@mailinator.com", "03355531299");
+        customerRESTService.createCustomer(customer);
+        Hotel hotel = createHotelInstance("stay", "03397574699", "ab1cd2");
+        hotelRESTService.createHotel(hotel);
+
+        // Three nights, from the 9th to the 12th
+        Booking stay = createBookingInstance(customer, hotel, date);
+        stay.setCheckOutDate(new Date(2018, 10, 12));
+        assertEquals("Unexpected response status", 201, bookingRESTService.createBooking(stay).getStatus());
+
+        // Starts on the last night of the first stay
+        Booking overlapping = createBookingInstance(customer, hotel, new Date(2018, 10, 11));
+        overlapping.setCheckOutDate(new Date(2018, 10, 14));
+        assertEquals("Unexpected response status", 409, bookingRESTService.createBooking(overlapping).getStatus());
+
+        // Starts on the day the first stay checks out
+        Booking next = createBookingInstance(customer, hotel, new Date(2018, 10, 12));
+        assertEquals("Unexpected response status", 201, bookingRESTService.createBooking(next).getStatus());
+        assertEquals("A booking without a check-out date should be for one night", new Date(2018, 10, 13),
+            next.getCheckOutDate());
+    }
+
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    @Test
+    @InSequence(7)
+    public void testBatch() throws Exception {
+        Customer customer = createCustomerInstance("qin", "lan", "qinlan@mailinator.com", "03355531301");
+        customerRESTService.createCustomer(customer);
+        Hotel hotel = createHotelInstance("batch", "03397574701", "ab1cd3");
+        hotelRESTService.createHotel(hotel);
+
+        Booking first = createBookingInstance(customer, hotel, date);
+        Booking second = createBookingInstance(customer, hotel, new Date(2018, 10, 10));
+        Response response = bookingRESTService.createBookings(Arrays.asList(first, second));
+
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        assertEquals("Unexpected number of bookings", 2, ((List<Booking>) response.getEntity()).size());
+        assertNotNull("The bookings should have been given an id", second.getId());
+        log.info("Batch of bookings was persisted and returned status " + response.getStatus());
+    }
+
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    @Test
+    @InSequence(8)
+    public void testBatchOverlappingItself() throws Exception {
+        Customer customer = createCustomerInstance("qin", "mu", "qinmu@mailinator.com", "03355531302");
+        customerRESTService.createCustomer(customer);
+        Hotel hotel = createHotelInstance("overlap", "03397574702", "ab1cd4");
+        hotelRESTService.createHotel(hotel);
+
+        // Two nights from the 9th, then a night in the middle of them
+        Booking stay = createBookingInstance(customer, hotel, date);
+        stay.setCheckOutDate(new Date(2018, 10, 11));
+        Booking overlapping = createBookingInstance(customer, hotel, new Date(2018, 10, 10));
+        Response response = bookingRESTService.createBookings(Arrays.asList(stay, overlapping));
+
+        assertEquals("Unexpected response status", 409, response.getStatus());
+        List<Map<String, String>> errors = (List<Map<String, String>>) response.getEntity();
+        assertEquals("There should be one result per booking", 2, errors.size());
+        assertFalse("One of the bookings should be reported", errors.get(0).isEmpty() && errors.get(1).isEmpty());
+        assertEquals("No booking should have been created", 0, bookingsOf(hotel).size());
+    }
+
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    @Test
+    @InSequence(9)
+    public void testBatchConflictingWithExisting() throws Exception {
+        Customer customer = createCustomerInstance("qin", "shi", "qinshi@mailinator.com", "03355531303");
+        customerRESTService.createCustomer(customer);
+        Hotel hotel = createHotelInstance("existing", "03397574703", "ab1cd5");
+        hotelRESTService.createHotel(hotel);
+        assertEquals("Unexpected response status", 201,
+            bookingRESTService.createBooking(createBookingInstance(customer, hotel, date)).getStatus());
+
+        Booking free = createBookingInstance(customer, hotel, new Date(2018, 10, 15));
+        Booking taken = createBookingInstance(customer, hotel, date);
+        Response response = bookingRESTService.createBookings(Arrays.asList(free, taken));
+
+        assertEquals("Unexpected response status", 409, response.getStatus());
+        List<Map<String, String>> errors = (List<Map<String, String>>) response.getEntity();
+        assertTrue("The free night should not be reported", errors.get(0).isEmpty());
+        assertFalse("The taken night should be reported", errors.get(1).isEmpty());
+        assertEquals("Only the existing booking should be stored", 1, bookingsOf(hotel).size());
+    }
+
+    @Test
+    @InSequence(10)
+    public void testBatchWithNull() throws Exception {
+        try {
+            bookingRESTService.createBookings(Arrays.asList((Booking) null));
+            fail("A null booking should be rejected");
+        } catch (WebApplicationException e) {
+            assertEquals("Unexpected response status", 400, e.getResponse().getStatus());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BookingSummary> bookingsOf(Hotel hotel) {
+        return (List<BookingSummary>) bookingRESTService
+            .retrieveBookingByHotel(hotel.getId(), null, null, null, null, null).getEntity();
+    }
     	
     
     
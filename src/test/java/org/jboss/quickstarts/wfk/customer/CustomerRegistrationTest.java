@@ -18,15 +18,22 @@ package org.jboss.quickstarts.wfk.customer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Providers;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
@@ -36,7 +43,28 @@ import org.jboss.quickstarts.wfk.customer.CustomerRESTService;
 import org.jboss.quickstarts.wfk.customer.CustomerRepository;
 import org.jboss.quickstarts.wfk.customer.CustomerService;
 import org.jboss.quickstarts.wfk.customer.CustomerValidator;
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.AsyncLogAppender;
+import org.jboss.quickstarts.wfk.util.AsyncWorker;
+import org.jboss.quickstarts.wfk.util.BulkImport;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.NewTransaction;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
 import org.jboss.quickstarts.wfk.util.Resources;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.jboss.resteasy.spi.AsynchronousResponse;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -80,8 +108,27 @@ public class CustomerRegistrationTest {
                         CustomerRESTService.class, 
                         CustomerRepository.class, 
                         CustomerValidator.class, 
+                        CustomerEmailIndex.class,
+                        CustomerNameIndex.class,
                         CustomerService.class, 
-                        Resources.class)
+                        Resources.class,
+                        AsyncLogAppender.class,
+                        StructuredLogger.class,
+                        AsyncDispatcher.class,
+                        AsyncWorker.class,
+                        RequestMetrics.class,
+                        RequestMetricsInterceptor.class,
+                        JsonArrayStreamingOutput.class,
+                        EntityTags.class,
+                        Paging.class,
+                        PersistenceErrors.class,
+                        PrefixIndex.class,
+                        TransactionUndo.class,
+                        BulkImport.class,
+                        NewTransaction.class,
+                        ImportSummary.class,
+                        JacksonConfig.class,
+                        RecordReader.class)
             .addAsLibraries(libs)
             .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
             .addAsWebInfResource("arquillian-ds.xml")
@@ -94,7 +141,10 @@ public class CustomerRegistrationTest {
     CustomerRESTService customerRESTService;
     
     @Inject
-    @Named("logger") Logger log;
+    RequestMetrics metrics;
+
+    @Inject
+    @Named("logger") StructuredLogger log;
 
     //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
    // private Date date = new Date(498484800000L);
@@ -144,7 +194,7 @@ public class CustomerRegistrationTest {
     @Test
     @InSequence(4)
     public void testRetriveCustomer() throws Exception{
-    	Response response = customerRESTService.retrieveAllCustomers();
+    	Response response = customerRESTService.retrieveAllCustomers(new RequestImpl(MockHttpRequest.get("/customers")));
     	assertEquals("Cannot retrive all customers",200,response.getStatus());
     	log.info("Failed to retrive all customers"+response.getStatus());
     }
@@ -188,12 +238,114 @@ public class CustomerRegistrationTest {
       	assertEquals("Unexpected response status", 400, response.getStatus());
         log.info("Invalid customer register attempt failed with return code " + response.getStatus());
     }
+
+    @Test
+    @InSequence(9)
+    public void testRegisterAsync() throws Exception {
+        Customer customer = createCustomerInstance("Amy", "Doe", "amy@mailinator.com", "01199873199");
+
+        // Stands in for the suspended HTTP request, which the dispatcher resumes on a thread of the EJB asynchronous pool
+        final BlockingQueue<Response> responses = new ArrayBlockingQueue<Response>(1);
+        customerRESTService.createCustomerAsync(customer, new AsynchronousResponse() {
+            @Override
+            public void setResponse(Response response) {
+                responses.add(response);
+            }
+        });
+        Response response = responses.poll(AsyncDispatcher.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertNotNull("The request was not resumed", response);
+        assertEquals("Unexpected response status", 201, response.getStatus());
+        log.info("New customer was persisted asynchronously and returned status " + response.getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(10)
+    public void testRequestMetrics() throws Exception {
+        Map<String, Object> endpoints = metrics.snapshot();
+        Map<String, Object> create = (Map<String, Object>) endpoints.get("CustomerRESTService.createCustomer");
+
+        assertNotNull("createCustomer was not measured", create);
+        Map<String, Long> responses = (Map<String, Long>) create.get("responses");
+        // Only the second customer of testDuplicateEmail conflicted
+        assertEquals("Unexpected number of conflicts", Long.valueOf(1), responses.get("409"));
+        assertTrue("Bad requests were not counted as errors", (Long) create.get("errors") > responses.get("409"));
+        log.info("createCustomer metrics: " + create);
+    }
+
+    @Test
+    @InSequence(11)
+    public void testUpdateEmail() throws Exception {
+        Customer customer = createCustomerInstance("Jack", "Doe", "jack@mailinator.com", "03355531235");
+        customerRESTService.createCustomer(customer);
+        Customer anotherCustomer = createCustomerInstance("Jill", "Doe", "jill@mailinator.com", "03355531236");
+        customerRESTService.createCustomer(anotherCustomer);
+
+        // Keeping their own email address is not a conflict
+        customer.setPhoneNumber("03355531237");
+        Response response = customerRESTService.updateCustomer(customer.getId(), customer);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+
+        // Taking another customer's is
+        anotherCustomer.setEmail("jack@mailinator.com");
+        response = customerRESTService.updateCustomer(anotherCustomer.getId(), anotherCustomer);
+        assertEquals("Unexpected response status", 409, response.getStatus());
+        log.info("Update to a taken email address failed with return code " + response.getStatus());
+    }
     
     
     
     	
     
 
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(12)
+    public void testSuggestByName() throws Exception {
+        Customer customer = createCustomerInstance("Marguerite", "Quigley", "marguerite@mailinator.com", "03355531238");
+        customerRESTService.createCustomer(customer);
+
+        for (String prefix : new String[] { "margu", "QUIG", "marguerite q" }) {
+            Response response = customerRESTService.suggestCustomers(prefix, null);
+            assertEquals("Unexpected response status", 200, response.getStatus());
+            List<PrefixIndex.Match> matches = (List<PrefixIndex.Match>) response.getEntity();
+            assertEquals("Unexpected number of suggestions for " + prefix, 1, matches.size());
+            assertEquals("Unexpected suggestion", "Marguerite Quigley", matches.get(0).getName());
+        }
+        log.info("Customers were suggested by the start of their names");
+    }
+
+    @Test
+    @InSequence(13)
+    public void testImportNdjson() throws Exception {
+        String ndjson = "{\"firstName\": \"Ada\", \"lastName\": \"Imported\", \"email\": \"ada.imported@mailinator.com\", \"phoneNumber\": \"01234567801\"}\n"
+            + "{\"firstName\": \"Bob\", \"lastName\": \"Imported\", \"email\": \"bob.imported@mailinator.com\", \"phoneNumber\": \"01234567802\"}\n"
+            + "{\"firstName\": \"Cy\", \"lastName\": \"Imported\", \"email\": \"ada.imported@mailinator.com\", \"phoneNumber\": \"01234567803\"}\n";
+        HttpHeaders headers = MockHttpRequest.post("/customers/import").contentType(RecordReader.APPLICATION_NDJSON)
+            .getHttpHeaders();
+
+        Response response = customerRESTService.importCustomers(new ByteArrayInputStream(ndjson.getBytes("UTF-8")),
+            headers, providers());
+
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        ImportSummary summary = (ImportSummary) response.getEntity();
+        assertTrue("The whole upload should have been read", summary.isComplete());
+        assertEquals("Unexpected number of records processed", 3, summary.getProcessed());
+        assertEquals("Unexpected number of customers imported", 2, summary.getImported());
+        assertEquals("Unexpected number of records rejected", 1, summary.getRejected());
+        assertEquals("The duplicate should be reported by line", 3, summary.getErrors().get(0).get("line"));
+        assertNotNull("The duplicate should be reported by email", summary.getErrors().get(0).get("email"));
+        log.info("NDJSON import of customers returned status " + response.getStatus());
+    }
+
+    // The providers of a request, holding the application's ObjectMapper
+    private static Providers providers() throws Exception {
+        ResteasyProviderFactory factory = new ResteasyProviderFactory();
+        factory.registerProviderInstance(new JacksonConfig());
+        return factory;
+    }
+
     /**
      * <p>A utility method to construct a {@link org.jboss.quickstarts.wfk.customer.Customer Customer} object for use in
      * testing. This object is not persisted.</p>
@@ -18,26 +18,60 @@ package org.jboss.quickstarts.wfk.hotel;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.net.URISyntaxException;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.junit.InSequence;
+import org.jboss.quickstarts.wfk.booking.Booking;
+import org.jboss.quickstarts.wfk.booking.BookingSummary;
 import org.jboss.quickstarts.wfk.customer.Customer;
 import org.jboss.quickstarts.wfk.hotel.Hotel;
+import org.jboss.quickstarts.wfk.hotel.HotelNameIndex;
 import org.jboss.quickstarts.wfk.hotel.HotelRESTService;
 import org.jboss.quickstarts.wfk.hotel.HotelRepository;
 import org.jboss.quickstarts.wfk.hotel.HotelService;
 import org.jboss.quickstarts.wfk.hotel.HotelValidator;
+import org.jboss.quickstarts.wfk.util.AsyncDispatcher;
+import org.jboss.quickstarts.wfk.util.AsyncLogAppender;
+import org.jboss.quickstarts.wfk.util.AsyncWorker;
+import org.jboss.quickstarts.wfk.util.BulkImport;
+import org.jboss.quickstarts.wfk.util.DateRange;
+import org.jboss.quickstarts.wfk.util.EntityTags;
+import org.jboss.quickstarts.wfk.util.ImportSummary;
+import org.jboss.quickstarts.wfk.util.JacksonConfig;
+import org.jboss.quickstarts.wfk.util.JsonArrayStreamingOutput;
+import org.jboss.quickstarts.wfk.util.NewTransaction;
+import org.jboss.quickstarts.wfk.util.Paging;
+import org.jboss.quickstarts.wfk.util.PersistenceErrors;
+import org.jboss.quickstarts.wfk.util.PrefixIndex;
+import org.jboss.quickstarts.wfk.util.RecordReader;
+import org.jboss.quickstarts.wfk.util.RequestMetrics;
+import org.jboss.quickstarts.wfk.util.RequestMetricsInterceptor;
 import org.jboss.quickstarts.wfk.util.Resources;
+import org.jboss.quickstarts.wfk.util.StructuredLogger;
+import org.jboss.quickstarts.wfk.util.TransactionUndo;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.jboss.shrinkwrap.api.Archive;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
@@ -82,7 +116,30 @@ public class HotelRegistrationTest {
                         HotelRepository.class, 
                         HotelValidator.class, 
                         HotelService.class, 
-                        Resources.class)
+                        HotelNameIndex.class,
+                        Resources.class,
+                        AsyncLogAppender.class,
+                        StructuredLogger.class,
+                        AsyncDispatcher.class,
+                        AsyncWorker.class,
+                        RequestMetrics.class,
+                        RequestMetricsInterceptor.class,
+                        JsonArrayStreamingOutput.class,
+                        DateRange.class,
+                        EntityTags.class,
+                        Paging.class,
+                        PersistenceErrors.class,
+                        PrefixIndex.class,
+                        TransactionUndo.class,
+                        BulkImport.class,
+                        NewTransaction.class,
+                        ImportSummary.class,
+                        JacksonConfig.class,
+                        RecordReader.class,
+                        // Hotel.FIND_AVAILABLE queries Booking, which refers to Customer
+                        Booking.class,
+                        BookingSummary.class,
+                        Customer.class)
             .addAsLibraries(libs)
             .addAsResource("META-INF/test-persistence.xml", "META-INF/persistence.xml")
             .addAsWebInfResource("arquillian-ds.xml")
@@ -95,7 +152,7 @@ public class HotelRegistrationTest {
     HotelRESTService hotelRESTService;
     
     @Inject
-    @Named("logger") Logger log;
+    @Named("logger") StructuredLogger log;
 
     //Set millis 498484800000 from 1985-10-10T12:00:00.000Z
     private Date date = new Date(498484800000L);
@@ -146,7 +203,7 @@ public class HotelRegistrationTest {
     @Test
     @InSequence(4)
     public void testRetriveHotel() throws Exception{
-    	Response response = hotelRESTService.retrieveAllHotels();
+    	Response response = hotelRESTService.retrieveAllHotels(request(null));
     	assertEquals("Cannot retrive all hotels",200,response.getStatus());
     	log.info("Failed to retrive all hotels"+response.getStatus());
     }
@@ -177,6 +234,185 @@ public class HotelRegistrationTest {
     	 assertEquals("cannot delete",400,response.getStatus());
     	 log.info("connot delete" + response.getStatus());
     }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(8)
+    public void testRetrieveAvailableHotels() throws Exception {
+        Hotel hotel = createHotelInstance("kaiyuan", "02344456790", "kk1ll2");
+        hotelRESTService.createHotel(hotel);
+
+        Response response = hotelRESTService.retrieveAvailableHotels("2030-01-01", "2030-01-07", "kk1ll2", null, null, null);
+
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        List<Hotel> hotels = (List<Hotel>) response.getEntity();
+        assertEquals("A hotel without bookings should be available", 1, hotels.size());
+        assertEquals("Unexpected hotel", hotel.getId(), hotels.get(0).getId());
+        log.info("Available hotels were returned with status " + response.getStatus());
+    }
+
+    @Test
+    @InSequence(9)
+    public void testConditionalRetrieve() throws Exception {
+        Response response = hotelRESTService.retrieveAllHotels(request(null));
+        EntityTag tag = (EntityTag) response.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertNotNull("The list was not tagged", tag);
+
+        response = hotelRESTService.retrieveAllHotels(request(tag));
+        assertEquals("An unchanged list should not be sent again", 304, response.getStatus());
+
+        Hotel hotel = createHotelInstance("xiangyu", "02344456791", "mm1nn2");
+        hotelRESTService.createHotel(hotel);
+        response = hotelRESTService.retrieveAllHotels(request(tag));
+        assertEquals("A new hotel should change the list", 200, response.getStatus());
+
+        response = hotelRESTService.retrieveHotelById(hotel.getId(), request(null));
+        tag = (EntityTag) response.getMetadata().getFirst(HttpHeaders.ETAG);
+        response = hotelRESTService.retrieveHotelById(hotel.getId(), request(tag));
+        assertEquals("An unchanged hotel should not be sent again", 304, response.getStatus());
+
+        hotel.setName("xiangyun");
+        hotelRESTService.updateHotel(hotel.getId(), hotel, headers(null));
+        response = hotelRESTService.retrieveHotelById(hotel.getId(), request(tag));
+        assertEquals("An updated hotel should be sent again", 200, response.getStatus());
+        log.info("Conditional retrieves returned status " + response.getStatus());
+    }
+
+    @Test
+    @InSequence(10)
+    public void testConditionalUpdate() throws Exception {
+        Hotel hotel = createHotelInstance("tianlong", "02344456792", "pp1qq2");
+        hotelRESTService.createHotel(hotel);
+        Response response = hotelRESTService.retrieveHotelById(hotel.getId(), request(null));
+        EntityTag read = (EntityTag) response.getMetadata().getFirst(HttpHeaders.ETAG);
+
+        hotel.setName("tianlongsi");
+        response = hotelRESTService.updateHotel(hotel.getId(), hotel, headers(read));
+        assertEquals("An update of the current version should succeed", 200, response.getStatus());
+        EntityTag updated = (EntityTag) response.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertNotNull("The update was not tagged", updated);
+
+        hotel.setName("tianlonggong");
+        response = hotelRESTService.updateHotel(hotel.getId(), hotel, headers(read));
+        assertEquals("An update of a stale version should fail", 412, response.getStatus());
+        response = hotelRESTService.updateHotel(hotel.getId(), hotel, headers(updated));
+        assertEquals("An update of the new version should succeed", 200, response.getStatus());
+
+        hotel.setId(Long.MAX_VALUE);
+        hotel.setPhoneNumber("02344456793");
+        response = hotelRESTService.updateHotel(hotel.getId(), hotel, headers(null));
+        assertEquals("An update of a missing hotel should fail", 404, response.getStatus());
+        log.info("A stale conditional update was rejected");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(11)
+    public void testSearchByPostcodePrefix() throws Exception {
+        hotelRESTService.createHotel(createHotelInstance("shangri", "02344456794", "sr1aa1"));
+        hotelRESTService.createHotel(createHotelInstance("lanting", "02344456795", "SR1BB2"));
+        hotelRESTService.createHotel(createHotelInstance("xilai", "02344456796", "sr2cc3"));
+        UriInfo uriInfo = MockHttpRequest.get("/hotels/search").getUri();
+
+        Response response = hotelRESTService.searchHotels("sr1", null, null, uriInfo);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        assertEquals("Both hotels of the district should be found", 2, ((List<Hotel>) response.getEntity()).size());
+
+        response = hotelRESTService.searchHotels(" SR ", null, 2, uriInfo);
+        List<Hotel> hotels = (List<Hotel>) response.getEntity();
+        assertEquals("A full page should be returned", 2, hotels.size());
+        assertEquals("Postcodes should be stored in upper case", "SR1AA1", hotels.get(0).getPostcode());
+        assertNotNull("A full page should link to the next one", response.getMetadata().getFirst("Link"));
+
+        response = hotelRESTService.searchHotels("SR", hotels.get(1).getId(), 2, uriInfo);
+        assertEquals("The last hotel of the area should be on the next page", 1, ((List<Hotel>) response.getEntity()).size());
+
+        try {
+            hotelRESTService.searchHotels("sr%", null, null, uriInfo);
+            fail("A prefix with a wildcard should be rejected");
+        } catch (WebApplicationException e) {
+            assertEquals("Unexpected response status", 400, e.getResponse().getStatus());
+        }
+        log.info("Hotels were found by the start of their postcode");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    @InSequence(12)
+    public void testSuggestByName() throws Exception {
+        // xiangyu was renamed xiangyun by testConditionalRetrieve
+        Response response = hotelRESTService.suggestHotels("XI", null);
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        List<PrefixIndex.Match> matches = (List<PrefixIndex.Match>) response.getEntity();
+        assertEquals("Unexpected number of suggestions", 2, matches.size());
+        assertEquals("Suggestions should be in alphabetical order", "xiangyun", matches.get(0).getName());
+        assertEquals("Suggestions should be in alphabetical order", "xilai", matches.get(1).getName());
+
+        Hotel hotel = createHotelInstance("xixi", "02344456797", "xx1xx1");
+        hotelRESTService.createHotel(hotel);
+        matches = (List<PrefixIndex.Match>) hotelRESTService.suggestHotels("xix", null).getEntity();
+        assertEquals("A new hotel should be suggested straight away", 1, matches.size());
+        assertEquals("Unexpected suggestion", hotel.getId(), matches.get(0).getId());
+        log.info("Hotels were suggested by the start of their name");
+    }
+
+    @Test
+    @InSequence(13)
+    public void testImportCsv() throws Exception {
+        String csv = "name,phoneNumber,postcode\n"
+            + "imported,02344456801,ab1ab1\n"
+            + "imported,02344456802,ab1ab2\n"
+            + "duplicate,02344456801,ab1ab3\n";
+        HttpHeaders headers = MockHttpRequest.post("/hotels/import").contentType(RecordReader.TEXT_CSV).getHttpHeaders();
+
+        Response response = hotelRESTService.importHotels(new ByteArrayInputStream(csv.getBytes("UTF-8")), headers,
+            providers());
+
+        assertEquals("Unexpected response status", 200, response.getStatus());
+        ImportSummary summary = (ImportSummary) response.getEntity();
+        assertTrue("The whole upload should have been read", summary.isComplete());
+        assertEquals("Unexpected number of records processed", 3, summary.getProcessed());
+        assertEquals("Unexpected number of hotels imported", 2, summary.getImported());
+        assertEquals("Unexpected number of records rejected", 1, summary.getRejected());
+        assertEquals("The duplicate should be reported by line", 4, summary.getErrors().get(0).get("line"));
+        assertNotNull("The duplicate should be reported by phone number", summary.getErrors().get(0).get("phoneNumber"));
+        log.info("CSV import of hotels returned status " + response.getStatus());
+    }
+
+    // The providers of a request, holding the application's ObjectMapper
+    private static Providers providers() throws Exception {
+        ResteasyProviderFactory factory = new ResteasyProviderFactory();
+        factory.registerProviderInstance(new JacksonConfig());
+        return factory;
+    }
+
+    /**
+     * <p>Builds the JAX-RS view of a GET request, as RESTEasy would pass it to the resource.</p>
+     *
+     * @param ifNoneMatch The tag to send in an If-None-Match header, or null to send none
+     * @return The request
+     */
+    private static Request request(EntityTag ifNoneMatch) throws URISyntaxException {
+        MockHttpRequest request = MockHttpRequest.get("/hotels");
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.toString());
+        }
+        return new RequestImpl(request);
+    }
+
+    /**
+     * <p>Builds the headers of a PUT request, as RESTEasy would pass them to the resource.</p>
+     *
+     * @param ifMatch The tag to send in an If-Match header, or null to send none
+     * @return The headers
+     */
+    private static HttpHeaders headers(EntityTag ifMatch) throws URISyntaxException {
+        MockHttpRequest request = MockHttpRequest.put("/hotels");
+        if (ifMatch != null) {
+            request.header(HttpHeaders.IF_MATCH, ifMatch.toString());
+        }
+        return request.getHttpHeaders();
+    }
 
     
 